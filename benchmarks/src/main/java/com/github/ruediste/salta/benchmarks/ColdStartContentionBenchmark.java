@@ -0,0 +1,119 @@
+package com.github.ruediste.salta.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.jsr330.util.Names;
+import com.github.ruediste.salta.standard.DependencyKey;
+
+/**
+ * Measures the time until a number of threads resolved a set of keys which
+ * were never requested before from a fresh injector. Every thread requests
+ * every key, starting at a different offset. Compare the results for different
+ * thread counts to see how cold resolution scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(2)
+public class ColdStartContentionBenchmark {
+
+    public interface Service {
+    }
+
+    public static class Leaf {
+    }
+
+    public static class Middle {
+        @Inject
+        Leaf leaf1;
+
+        @Inject
+        Leaf leaf2;
+    }
+
+    public static class ServiceImpl implements Service {
+        @Inject
+        ServiceImpl(Middle a, Middle b, Leaf c) {
+        }
+    }
+
+    @Param({ "1", "2", "4", "8", "16" })
+    public int threads;
+
+    @Param({ "500" })
+    public int keyCount;
+
+    private ExecutorService executor;
+    private List<CoreDependencyKey<?>> keys;
+    private Injector injector;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        executor = Executors.newFixedThreadPool(threads);
+        keys = new ArrayList<>();
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(DependencyKey.of(Service.class).withAnnotations(Names.named("service" + i)));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInjector() {
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                for (int i = 0; i < keyCount; i++) {
+                    bind(Service.class).named("service" + i).to(ServiceImpl.class);
+                }
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void resolveColdKeys(Blackhole bh) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * keyCount / threads;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < keyCount; i++) {
+                    bh.consume(injector.getInstance(keys.get((offset + i) % keyCount)));
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+    }
+}
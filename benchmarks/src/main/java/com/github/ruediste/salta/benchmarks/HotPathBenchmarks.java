@@ -0,0 +1,24 @@
+package com.github.ruediste.salta.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the instantiation hot paths with the GC profiler
+ * (equivalent to {@code -prof gc}), such that allocation regressions become
+ * visible in the {@code gc.alloc.rate.norm} column. Run with
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.github.ruediste.salta.benchmarks.HotPathBenchmarks [regex]
+ * </pre>
+ */
+public class HotPathBenchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0]
+                : "(Instantiation|Injection|ScopeAccess)Benchmark";
+        new Runner(new OptionsBuilder().include(include).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.ruediste.salta.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+
+/**
+ * Measures the instantiation of classes using field, constructor and method
+ * injection. Public members are accessed directly by the compiled recipes,
+ * private members through invokedynamic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InjectionBenchmark {
+
+    public enum InjectionKind {
+        FIELD, CONSTRUCTOR, METHOD
+    }
+
+    public enum Visibility {
+        PUBLIC, PRIVATE
+    }
+
+    public static class Dependency {
+    }
+
+    public static class PublicField {
+        @Inject
+        public Dependency dependency;
+    }
+
+    public static class PrivateField {
+        @Inject
+        private Dependency dependency;
+    }
+
+    public static class PublicConstructor {
+        @Inject
+        public PublicConstructor(Dependency dependency) {
+        }
+    }
+
+    public static class PrivateConstructor {
+        @Inject
+        private PrivateConstructor(Dependency dependency) {
+        }
+    }
+
+    public static class PublicMethod {
+        @Inject
+        public void setDependency(Dependency dependency) {
+        }
+    }
+
+    public static class PrivateMethod {
+        @Inject
+        private void setDependency(Dependency dependency) {
+        }
+    }
+
+    @Param
+    public InjectionKind injection;
+
+    @Param
+    public Visibility visibility;
+
+    private Injector injector;
+    private Class<?> type;
+
+    @Setup
+    public void setup() {
+        injector = Salta.createInjector();
+        boolean isPublic = visibility == Visibility.PUBLIC;
+        switch (injection) {
+        case FIELD:
+            type = isPublic ? PublicField.class : PrivateField.class;
+            break;
+        case CONSTRUCTOR:
+            type = isPublic ? PublicConstructor.class : PrivateConstructor.class;
+            break;
+        case METHOD:
+            type = isPublic ? PublicMethod.class : PrivateMethod.class;
+            break;
+        }
+    }
+
+    @Benchmark
+    public Object getInstance() {
+        return injector.getInstance(type);
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.ruediste.salta.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ruediste.salta.core.InstanceHandle;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.config.LazySingletonScope;
+
+/**
+ * Measures the retrieval of instances through
+ * {@link Injector#getInstance(Class)}, a provider obtained from
+ * {@link Injector#getProvider(Class)}, an injected {@link Provider} and an
+ * {@link InstanceHandle}, for singletons, lazy singletons (see
+ * {@link LazySingletonScope}) and for instances in the default scope.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstantiationBenchmark {
+
+    public enum ScopeKind {
+        DEFAULT, SINGLETON, LAZY_SINGLETON
+    }
+
+    public static class Dependency {
+    }
+
+    public static class DefaultScoped {
+        @Inject
+        Dependency dependency;
+    }
+
+    @Singleton
+    public static class SingletonScoped {
+        @Inject
+        Dependency dependency;
+    }
+
+    public static class ProviderHolder {
+        @Inject
+        Provider<DefaultScoped> defaultScoped;
+
+        @Inject
+        Provider<SingletonScoped> singletonScoped;
+    }
+
+    @Param
+    public ScopeKind scope;
+
+    private Injector injector;
+    private Class<?> type;
+    private Provider<?> injectorProvider;
+    private Provider<?> injectedProvider;
+    private InstanceHandle<?> instanceHandle;
+
+    @Setup
+    public void setup() {
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                if (scope == ScopeKind.LAZY_SINGLETON)
+                    config().standardConfig.singletonScope = new LazySingletonScope();
+            }
+        });
+        ProviderHolder holder = injector.getInstance(ProviderHolder.class);
+        switch (scope) {
+        case DEFAULT:
+            type = DefaultScoped.class;
+            injectedProvider = holder.defaultScoped;
+            break;
+        case SINGLETON:
+        case LAZY_SINGLETON:
+            type = SingletonScoped.class;
+            injectedProvider = holder.singletonScoped;
+            break;
+        }
+        injectorProvider = injector.getProvider(type);
+        instanceHandle = injector.getInstanceHandle(type);
+    }
+
+    @Benchmark
+    public Object getInstance() {
+        return injector.getInstance(type);
+    }
+
+    /**
+     * Provider created by the injector (StandardInjector.ProviderImpl)
+     */
+    @Benchmark
+    public Object injectorProviderGet() {
+        return injectorProvider.get();
+    }
+
+    /**
+     * Injected provider (ProviderCreationRule.ProviderImpl)
+     */
+    @Benchmark
+    public Object injectedProviderGet() {
+        return injectedProvider.get();
+    }
+
+    @Benchmark
+    public Object instanceHandleGet() {
+        return instanceHandle.get();
+    }
+}
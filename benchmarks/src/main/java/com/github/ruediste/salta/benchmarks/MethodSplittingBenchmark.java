@@ -0,0 +1,126 @@
+package com.github.ruediste.salta.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+
+/**
+ * Measures the instantiation of a deep graph of prototype scoped objects (511
+ * instances) for different recipe size thresholds. The default threshold
+ * results in large methods which are not inlined by the JIT, while the
+ * {@link SupplierRecipe#INLINING_SIZE_THRESHOLD} splits the graph into small
+ * methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MethodSplittingBenchmark {
+
+    public static class Node8 {
+    }
+
+    public static class Node7 {
+        @Inject
+        Node8 a;
+        @Inject
+        Node8 b;
+    }
+
+    public static class Node6 {
+        @Inject
+        Node7 a;
+        @Inject
+        Node7 b;
+    }
+
+    public static class Node5 {
+        @Inject
+        Node6 a;
+        @Inject
+        Node6 b;
+    }
+
+    public static class Node4 {
+        @Inject
+        Node5 a;
+        @Inject
+        Node5 b;
+    }
+
+    public static class Node3 {
+        @Inject
+        Node4 a;
+        @Inject
+        Node4 b;
+    }
+
+    public static class Node2 {
+        @Inject
+        Node3 a;
+        @Inject
+        Node3 b;
+    }
+
+    public static class Node1 {
+        final Node2 a;
+        final Node2 b;
+
+        @Inject
+        Node1(Node2 a, Node2 b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    public static class Node0 {
+        final Node1 a;
+        final Node1 b;
+
+        @Inject
+        Node0(Node1 a, Node1 b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    @Param({ "7000", "325" })
+    public int sizeThreshold;
+
+    private Injector injector;
+
+    @Setup
+    public void setup() {
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                config().standardConfig.config.recipeSizeThreshold = sizeThreshold;
+            }
+        });
+    }
+
+    @Benchmark
+    public Node0 getInstance() {
+        return injector.getInstance(Node0.class);
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.ruediste.salta.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ruediste.salta.jsr330.Salta;
+
+/**
+ * Measures the throughput of injected {@link Provider}s, with one and with
+ * multiple threads sharing the providers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProviderGetBenchmark {
+
+    public static class Prototype {
+    }
+
+    @Singleton
+    public static class SingletonScoped {
+    }
+
+    public static class ProviderHolder {
+        @Inject
+        Provider<Prototype> prototype;
+
+        @Inject
+        Provider<SingletonScoped> singleton;
+    }
+
+    private ProviderHolder holder;
+
+    @Setup
+    public void setup() {
+        holder = Salta.createInjector().getInstance(ProviderHolder.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object prototype() {
+        return holder.prototype.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object prototype4Threads() {
+        return holder.prototype.get();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object singleton() {
+        return holder.singleton.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object singleton4Threads() {
+        return holder.singleton.get();
+    }
+}
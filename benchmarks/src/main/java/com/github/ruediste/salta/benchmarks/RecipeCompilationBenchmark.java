@@ -0,0 +1,90 @@
+package com.github.ruediste.salta.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ruediste.salta.core.CompiledSupplier;
+import com.github.ruediste.salta.core.compile.MethodCompilationContext;
+import com.github.ruediste.salta.core.compile.RecipeCompiler;
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+
+/**
+ * Measures the time to compile a recipe graph of about 10k nodes. Each node
+ * evaluates its children, discards the results and pushes a constant. The
+ * recipes are created fresh for every invocation, since recipes memorize the
+ * results of the code size evaluation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 40)
+@Fork(2)
+public class RecipeCompilationBenchmark {
+
+    private static class Node extends SupplierRecipe {
+        private final List<SupplierRecipe> children;
+
+        Node(List<SupplierRecipe> children) {
+            this.children = children;
+        }
+
+        @Override
+        protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+            for (SupplierRecipe child : children) {
+                ctx.pop(child.compile(ctx));
+            }
+            mv.push(1);
+            return int.class;
+        }
+    }
+
+    /**
+     * Number of children of each inner node
+     */
+    @Param({ "2", "10" })
+    public int fanout;
+
+    @Param({ "10000" })
+    public int nodeCount;
+
+    private SupplierRecipe root;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        int depth = 0;
+        for (int count = 1, level = 1; count < nodeCount; count += level) {
+            level *= fanout;
+            depth++;
+        }
+        root = createTree(depth);
+    }
+
+    private SupplierRecipe createTree(int depth) {
+        List<SupplierRecipe> children = new ArrayList<>();
+        if (depth > 0)
+            for (int i = 0; i < fanout; i++)
+                children.add(createTree(depth - 1));
+        return new Node(children);
+    }
+
+    @Benchmark
+    public CompiledSupplier compile() {
+        return new RecipeCompiler().compileSupplier(root);
+    }
+}
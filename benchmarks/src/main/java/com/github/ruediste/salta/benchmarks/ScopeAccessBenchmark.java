@@ -0,0 +1,119 @@
+package com.github.ruediste.salta.benchmarks;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.ScopeImpl;
+import com.github.ruediste.salta.standard.util.SimpleProxyScopeManager;
+import com.github.ruediste.salta.standard.util.SimpleScopeManager;
+import com.github.ruediste.salta.standard.util.SimpleScopeManagerBase;
+
+/**
+ * Measures the access to instances in a custom scope managed by a
+ * {@link SimpleScopeManager} or a {@link SimpleProxyScopeManager}. The scope
+ * state is thread local, thus the state of this benchmark is per thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ScopeAccessBenchmark {
+
+    public enum ScopeManagerKind {
+        SIMPLE, PROXY
+    }
+
+    @Target(TYPE)
+    @Retention(RUNTIME)
+    @javax.inject.Scope
+    public @interface BenchmarkScoped {
+    }
+
+    @BenchmarkScoped
+    public static class Scoped {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    @Param
+    public ScopeManagerKind manager;
+
+    private SimpleScopeManagerBase scopeManager;
+    private Injector injector;
+    private Scoped scoped;
+
+    @Setup
+    public void setup() {
+        scopeManager = manager == ScopeManagerKind.SIMPLE ? new SimpleScopeManager("benchmark")
+                : new SimpleProxyScopeManager("benchmark");
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                bindScope(BenchmarkScoped.class, new ScopeImpl(scopeManager));
+            }
+        });
+        scopeManager.setFreshState();
+        scoped = injector.getInstance(Scoped.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scopeManager.setState(null);
+    }
+
+    /**
+     * Retrieve the instance from the active scope
+     */
+    @Benchmark
+    public Object getInstance() {
+        return injector.getInstance(Scoped.class);
+    }
+
+    /**
+     * Enter a fresh scope and retrieve the instance
+     */
+    @Benchmark
+    public Object getInstanceInFreshScope() {
+        SimpleScopeManagerBase.ScopeState old = scopeManager.setFreshState();
+        try {
+            return injector.getInstance(Scoped.class);
+        } finally {
+            scopeManager.setState(old);
+        }
+    }
+
+    /**
+     * Call a method of an instance retrieved earlier. For the proxy scope
+     * manager, this is delegated to the instance in the current scope.
+     */
+    @Benchmark
+    public int callScopedInstance() {
+        return scoped.getValue();
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.ruediste.salta.benchmarks;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.ScopeImpl;
+import com.github.ruediste.salta.standard.util.ScopedValueScopeManager;
+import com.github.ruediste.salta.standard.util.SimpleScopeManager;
+
+/**
+ * Measures the time to handle a number of concurrent requests, each in its own
+ * virtual thread and request scope, using a {@link SimpleScopeManager} or a
+ * {@link ScopedValueScopeManager}. Each request accesses a few scoped
+ * instances.
+ *
+ * <p>
+ * On JVMs without virtual threads, the requests are run on a
+ * {@link ForkJoinPool}. Check
+ * {@link ScopedValueScopeManager#isScopedValueAvailable()} (printed during
+ * setup) to see if the scoped value manager actually uses scoped values.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScopedRequestBenchmark {
+
+    public enum ScopeManagerKind {
+        THREAD_LOCAL, SCOPED_VALUE
+    }
+
+    @Target(TYPE)
+    @Retention(RUNTIME)
+    @javax.inject.Scope
+    public @interface RequestScoped {
+    }
+
+    @RequestScoped
+    public static class RequestData {
+    }
+
+    @RequestScoped
+    public static class RequestUser {
+    }
+
+    @Param
+    public ScopeManagerKind manager;
+
+    @Param({ "100000" })
+    public int requests;
+
+    private SimpleScopeManager scopeManager;
+    private Injector injector;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        scopeManager = manager == ScopeManagerKind.THREAD_LOCAL ? new SimpleScopeManager("request")
+                : new ScopedValueScopeManager("request");
+        System.out.println("\nscoped values available: " + ScopedValueScopeManager.isScopedValueAvailable());
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                bindScope(RequestScoped.class, new ScopeImpl(scopeManager));
+            }
+        });
+        executor = createExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void handleRequests(Blackhole bh) throws Exception {
+        List<Future<?>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> scopeManager.inScopeDo(scopeManager.createFreshState(), () -> {
+                for (int j = 0; j < 4; j++) {
+                    bh.consume(injector.getInstance(RequestData.class));
+                    bh.consume(injector.getInstance(RequestUser.class));
+                }
+            })));
+        }
+        for (Future<?> future : futures)
+            future.get();
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.github.ruediste.salta.benchmarks.startup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.core.ResolutionListener;
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.Stage;
+
+/**
+ * Measures the time from a cold JVM to the first instance of a
+ * {@link SyntheticGraph}, with one binding per generated class. Each
+ * measurement runs in a forked JVM. The injector is created using
+ * {@code Salta.createInjector()}, the phase boundaries are taken by hooks
+ * installed by the module:
+ *
+ * <ul>
+ * <li>binder: installing the modules and post processing the configuration,
+ * up to the first static initializer</li>
+ * <li>initialize: the remainder of {@code Salta.createInjector()}</li>
+ * <li>recipeCreation: creating the recipes of the resolved roots of the graph,
+ * including the instantiation of the singletons</li>
+ * <li>compilation: compiling the recipes of the roots</li>
+ * <li>instantiation: the remainder of the first {@code getInstance()} of the
+ * roots, mostly the first evaluation of the compiled recipes</li>
+ * </ul>
+ *
+ * The recipe creation and compilation times are taken by a
+ * {@link ResolutionListener} while resolving the roots. Time spent in a nested
+ * phase is only attributed to the nested phase.
+ *
+ * The roots are the classes of the first level, the fraction of them resolved
+ * is set by {@code --rootFraction}.
+ *
+ * The results are written as JSON. Run with
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.github.ruediste.salta.benchmarks.startup.StartupBenchmark \
+ *     --bindings 1000,10000,50000 --depth 5 --fanout 3 --singletonRatio 0.2 \
+ *     --privateRatio 0.2 --rootFraction 1 --forks 5 --label $(git rev-parse --short HEAD) --output startup.json
+ * </pre>
+ */
+public class StartupBenchmark {
+
+    private static final String RESULT_PREFIX = "STARTUP-RESULT ";
+
+    private static final String[] PHASES = { "binder", "initialize", "recipeCreation", "compilation",
+            "instantiation" };
+
+    private List<Integer> bindings = List.of(1000, 10000, 50000);
+    private int depth = 5;
+    private int fanout = 3;
+    private double singletonRatio = 0.2;
+    private double privateRatio = 0.2;
+    private double rootFraction = 1;
+    private int forks = 5;
+    private String label = "";
+    private String output = "startup.json";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--run")) {
+            runSingle(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]));
+            return;
+        }
+        StartupBenchmark benchmark = new StartupBenchmark();
+        benchmark.parseArguments(args);
+        benchmark.run();
+    }
+
+    private void parseArguments(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--bindings":
+                bindings = List.of(value.split(",")).stream().map(Integer::parseInt).collect(Collectors.toList());
+                break;
+            case "--depth":
+                depth = Integer.parseInt(value);
+                break;
+            case "--fanout":
+                fanout = Integer.parseInt(value);
+                break;
+            case "--singletonRatio":
+                singletonRatio = Double.parseDouble(value);
+                break;
+            case "--privateRatio":
+                privateRatio = Double.parseDouble(value);
+                break;
+            case "--rootFraction":
+                rootFraction = Double.parseDouble(value);
+                break;
+            case "--forks":
+                forks = Integer.parseInt(value);
+                break;
+            case "--label":
+                label = value;
+                break;
+            case "--output":
+                output = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        List<String> runs = new ArrayList<>();
+        for (int bindingCount : bindings) {
+            for (int fork = 0; fork < forks; fork++) {
+                String result = fork(bindingCount);
+                System.out.println(bindingCount + " bindings, fork " + (fork + 1) + ": " + result);
+                runs.add(result);
+            }
+        }
+
+        try (Writer writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"label\": " + quote(label) + ",\n");
+            writer.write("  \"timestamp\": " + quote(Instant.now().toString()) + ",\n");
+            writer.write("  \"javaVersion\": " + quote(System.getProperty("java.version")) + ",\n");
+            writer.write("  \"depth\": " + depth + ",\n");
+            writer.write("  \"fanout\": " + fanout + ",\n");
+            writer.write("  \"singletonRatio\": " + singletonRatio + ",\n");
+            writer.write("  \"privateRatio\": " + privateRatio + ",\n");
+            writer.write("  \"rootFraction\": " + rootFraction + ",\n");
+            writer.write("  \"runs\": [\n    ");
+            writer.write(String.join(",\n    ", runs));
+            writer.write("\n  ]\n}\n");
+        }
+        System.out.println("Results written to " + output);
+    }
+
+    private String fork(int bindingCount) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                StartupBenchmark.class.getName(), "--run", String.valueOf(bindingCount), String.valueOf(depth),
+                String.valueOf(fanout), String.valueOf(singletonRatio), String.valueOf(privateRatio),
+                String.valueOf(rootFraction))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX))
+                    result = line.substring(RESULT_PREFIX.length());
+                else
+                    System.out.println(line);
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || result == null)
+            throw new RuntimeException("Forked run failed with exit code " + exitCode);
+        return result;
+    }
+
+    /**
+     * Perform a single measurement and print the result to standard out
+     */
+    private static void runSingle(int bindingCount, int depth, int fanout, double singletonRatio,
+            double privateRatio, double rootFraction) {
+        SyntheticGraph graph = new SyntheticGraph(bindingCount, depth, fanout, singletonRatio, privateRatio);
+        // the compiled code has to see the generated classes
+        Thread.currentThread().setContextClassLoader(graph.getClassLoader());
+        List<Class<?>> roots = graph.getRoots().subList(0,
+                Math.max(1, (int) Math.ceil(graph.getRoots().size() * rootFraction)));
+
+        PhaseTimer timer = new PhaseTimer();
+        long[] nanos = new long[4];
+        nanos[0] = System.nanoTime();
+        Injector injector = Salta.createInjector(Stage.DEVELOPMENT, new AbstractModule() {
+
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            @Override
+            protected void configure() throws Exception {
+                // runs before the static initializers of the other modules
+                config().standardConfig.staticInitializers.add(() -> nanos[1] = System.nanoTime());
+                config().standardConfig.config.resolutionListeners.add(timer);
+                for (Class<?> cls : graph.getClasses())
+                    bind((Class) cls);
+            }
+        });
+        nanos[2] = System.nanoTime();
+
+        timer.start();
+        for (Class<?> root : roots) {
+            if (injector.getInstance(root) == null)
+                throw new RuntimeException("No instance created");
+        }
+        nanos[3] = System.nanoTime();
+        timer.stop();
+        long resolutionNanos = nanos[3] - nanos[2];
+        long[] phaseNanos = { nanos[1] - nanos[0], nanos[2] - nanos[1], timer.recipeCreationNanos,
+                timer.compilationNanos, resolutionNanos - timer.recipeCreationNanos - timer.compilationNanos };
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("bindings", bindingCount);
+        result.put("roots", roots.size());
+        for (int i = 0; i < PHASES.length; i++)
+            result.put(PHASES[i] + "Ms", phaseNanos[i] / 1e6);
+        result.put("totalMs", (nanos[3] - nanos[0]) / 1e6);
+        result.put("jvmUptimeMs", ManagementFactory.getRuntimeMXBean().getUptime());
+        System.out.println(RESULT_PREFIX + result.entrySet().stream()
+                .map(e -> quote(e.getKey()) + ": " + e.getValue()).collect(Collectors.joining(", ", "{", "}")));
+    }
+
+    /**
+     * Accumulates the time the resolving thread spends creating and compiling
+     * recipes. Nested phases interrupt the enclosing phase.
+     */
+    private static class PhaseTimer implements ResolutionListener {
+        private static final int RECIPE_CREATION = 0;
+        private static final int COMPILATION = 1;
+
+        private Thread thread;
+        private final Deque<Integer> phases = new ArrayDeque<>();
+        private long phaseStart;
+        long recipeCreationNanos;
+        long compilationNanos;
+
+        void start() {
+            thread = Thread.currentThread();
+        }
+
+        void stop() {
+            thread = null;
+        }
+
+        private void enter(int phase) {
+            if (Thread.currentThread() != thread)
+                return;
+            account();
+            phases.push(phase);
+        }
+
+        private void exit() {
+            if (Thread.currentThread() != thread)
+                return;
+            account();
+            phases.pop();
+        }
+
+        private void account() {
+            long now = System.nanoTime();
+            if (!phases.isEmpty()) {
+                if (phases.peek() == RECIPE_CREATION)
+                    recipeCreationNanos += now - phaseStart;
+                else
+                    compilationNanos += now - phaseStart;
+            }
+            phaseStart = now;
+        }
+
+        @Override
+        public void recipeCreationStarted(CoreDependencyKey<?> key) {
+            enter(RECIPE_CREATION);
+        }
+
+        @Override
+        public void recipeCreationFinished(CoreDependencyKey<?> key) {
+            exit();
+        }
+
+        @Override
+        public void compilationStarted(SupplierRecipe recipe) {
+            enter(COMPILATION);
+        }
+
+        @Override
+        public void compilationFinished(SupplierRecipe recipe) {
+            exit();
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
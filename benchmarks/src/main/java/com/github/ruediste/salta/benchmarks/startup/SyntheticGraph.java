@@ -0,0 +1,157 @@
+package com.github.ruediste.salta.benchmarks.startup;
+
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates the classes of a synthetic object graph. The classes are arranged
+ * in levels. Each class injects {@link #fanout} classes of the next level into
+ * its fields. The classes of the first level are the roots of the graph. The
+ * generation is deterministic, all random choices use a fixed seed.
+ */
+public class SyntheticGraph {
+
+    private static final String PACKAGE = "com/github/ruediste/salta/benchmarks/synthetic/";
+
+    public final int classCount;
+    public final int depth;
+    public final int fanout;
+    public final double singletonRatio;
+    public final double privateMemberRatio;
+
+    private final List<Class<?>> classes = new ArrayList<>();
+
+    private int rootCount;
+
+    public SyntheticGraph(int classCount, int depth, int fanout, double singletonRatio, double privateMemberRatio) {
+        if (depth < 1 || depth > classCount)
+            throw new IllegalArgumentException("depth has to be between 1 and the number of classes");
+        this.classCount = classCount;
+        this.depth = depth;
+        this.fanout = fanout;
+        this.singletonRatio = singletonRatio;
+        this.privateMemberRatio = privateMemberRatio;
+        generate();
+    }
+
+    private static class GraphClassLoader extends ClassLoader {
+        private final Map<String, byte[]> bytecode;
+
+        GraphClassLoader(ClassLoader parent, Map<String, byte[]> bytecode) {
+            super(parent);
+            this.bytecode = bytecode;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = bytecode.remove(name);
+            if (bytes == null)
+                throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private void generate() {
+        Random random = new Random(0);
+
+        // distribute the classes evenly over the levels
+        int[] levelStart = new int[depth + 1];
+        for (int level = 0; level <= depth; level++)
+            levelStart[level] = (int) ((long) classCount * level / depth);
+        rootCount = levelStart[1];
+
+        Map<String, byte[]> bytecode = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (int level = 0; level < depth; level++) {
+            for (int i = levelStart[level]; i < levelStart[level + 1]; i++) {
+                List<String> dependencies = new ArrayList<>();
+                if (level + 1 < depth) {
+                    int nextStart = levelStart[level + 1];
+                    int nextSize = levelStart[level + 2] - nextStart;
+                    for (int k = 0; k < fanout; k++)
+                        dependencies.add(className(nextStart + (i * fanout + k) % nextSize));
+                }
+                String name = className(i);
+                names.add(name);
+                bytecode.put(Type.getObjectType(name).getClassName(),
+                        generateClass(name, dependencies, random.nextDouble() < singletonRatio, random));
+            }
+        }
+
+        GraphClassLoader loader = new GraphClassLoader(getClass().getClassLoader(), bytecode);
+        for (String name : names) {
+            try {
+                classes.add(loader.loadClass(Type.getObjectType(name).getClassName()));
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static String className(int nr) {
+        return PACKAGE + "Node" + nr;
+    }
+
+    private byte[] generateClass(String name, List<String> dependencies, boolean singleton, Random random) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER, name, null, Type.getInternalName(Object.class), null);
+        if (singleton)
+            cw.visitAnnotation(Type.getDescriptor(Singleton.class), true).visitEnd();
+
+        for (int k = 0; k < dependencies.size(); k++) {
+            int access = random.nextDouble() < privateMemberRatio ? ACC_PRIVATE : ACC_PUBLIC;
+            FieldVisitor fv = cw.visitField(access, "dependency" + k,
+                    Type.getObjectType(dependencies.get(k)).getDescriptor(), null, null);
+            fv.visitAnnotation(Type.getDescriptor(Inject.class), true).visitEnd();
+            fv.visitEnd();
+        }
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(Object.class), "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * All generated classes, starting with the roots
+     */
+    public List<Class<?>> getClasses() {
+        return classes;
+    }
+
+    /**
+     * The classes of the first level, which are not injected by any other
+     * class
+     */
+    public List<Class<?>> getRoots() {
+        return classes.subList(0, rootCount);
+    }
+
+    public ClassLoader getClassLoader() {
+        return classes.get(0).getClassLoader();
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.ruediste.salta.core.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.PostConstruct;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.DependencyKey;
+
+public class TieredCompilationTest {
+
+	private Injector injector;
+	private CoreDependencyKey<TestClass> key = DependencyKey.of(TestClass.class);
+
+	static class Leaf {
+	}
+
+	@Singleton
+	static class Shared {
+	}
+
+	static class TestClass {
+		Leaf constructorLeaf;
+
+		@Inject
+		private Leaf fieldLeaf;
+
+		Leaf methodLeaf;
+
+		@Inject
+		Shared shared;
+
+		@Inject
+		Provider<Leaf> leafProvider;
+
+		boolean initialized;
+
+		boolean createdByTieredSupplier;
+
+		@Inject
+		TestClass(Leaf leaf) {
+			constructorLeaf = leaf;
+		}
+
+		@Inject
+		private void setLeaf(Leaf leaf) {
+			methodLeaf = leaf;
+		}
+
+		@PostConstruct
+		void init() {
+			initialized = true;
+			for (StackTraceElement element : new Throwable().getStackTrace())
+				if (element.getClassName().endsWith("$TieredSupplier"))
+					createdByTieredSupplier = true;
+		}
+	}
+
+	@Before
+	public void setup() {
+		injector = Salta.createInjector(new AbstractModule() {
+
+			@Override
+			protected void configure() throws Exception {
+				config().standardConfig.config.compilationThreshold = 3;
+				config().standardConfig.config.backgroundCompilationExecutor = Runnable::run;
+			}
+		});
+	}
+
+	@Test
+	public void interpretedAndCompiledResultsEqual() {
+		Shared shared = injector.getInstance(Shared.class);
+		TestClass previous = null;
+		for (int i = 0; i < 5; i++) {
+			TestClass instance = injector.getInstance(key);
+			assertNotSame(previous, instance);
+			assertNotNull(instance.constructorLeaf);
+			assertNotNull(instance.fieldLeaf);
+			assertNotNull(instance.methodLeaf);
+			assertNotNull(instance.leafProvider.get());
+			assertSame(shared, instance.shared);
+			assertTrue(instance.initialized);
+			previous = instance;
+			if (i == 0)
+				assertTrue(isInterpreted());
+		}
+		assertFalse(isInterpreted());
+	}
+
+	@Test
+	public void getInstanceByClassUsesCompiledSupplier() {
+		assertTrue(injector.getInstance(TestClass.class).createdByTieredSupplier);
+		for (int i = 0; i < 5; i++)
+			injector.getInstance(TestClass.class);
+		assertFalse(injector.getInstance(TestClass.class).createdByTieredSupplier);
+	}
+
+	private boolean isInterpreted() {
+		return injector.getDelegate().getCoreInjector().getCompiledRecipe(key).toString().startsWith("TieredSupplier");
+	}
+}
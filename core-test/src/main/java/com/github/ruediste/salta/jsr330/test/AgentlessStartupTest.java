@@ -0,0 +1,85 @@
+package com.github.ruediste.salta.jsr330.test;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.inject.Inject;
+import javax.inject.Scope;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.ScopeImpl;
+import com.github.ruediste.salta.standard.Stage;
+import com.github.ruediste.salta.standard.util.SimpleProxyScopeManager;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+
+/**
+ * Checks that creating and using an injector does not attach an agent to the
+ * running JVM.
+ */
+public class AgentlessStartupTest {
+
+	@Target(TYPE)
+	@Retention(RUNTIME)
+	@Scope
+	private @interface Batch {
+	}
+
+	@Batch
+	static class Scoped {
+		int value;
+
+		int getValue() {
+			return value;
+		}
+	}
+
+	@Singleton
+	static class Root {
+		@Inject
+		Scoped scoped;
+	}
+
+	@Test
+	public void noAttachByDefault() {
+		assertNoAgent();
+		SimpleProxyScopeManager manager = new SimpleProxyScopeManager("batch");
+		Injector injector = Salta.createInjector(Stage.PRODUCTION, new AbstractModule() {
+
+			@Override
+			protected void configure() throws Exception {
+				bindScope(Batch.class, new ScopeImpl(manager));
+				bind(Root.class);
+			}
+		});
+		manager.setFreshState();
+		try {
+			assertEquals(0, injector.getInstance(Root.class).scoped.getValue());
+		} finally {
+			manager.setState(null);
+		}
+		assertNoAgent();
+	}
+
+	private void assertNoAgent() {
+		// the attach listener thread is started when a JVM is attached to
+		assertFalse(Thread.getAllStackTraces().keySet().stream().anyMatch(t -> "Attach Listener".equals(t.getName())));
+		try {
+			ByteBuddyAgent.getInstrumentation();
+			fail("agent installed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
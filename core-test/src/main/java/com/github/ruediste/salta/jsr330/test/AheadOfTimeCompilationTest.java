@@ -0,0 +1,109 @@
+package com.github.ruediste.salta.jsr330.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ruediste.salta.core.compile.CompiledClassCache;
+import com.github.ruediste.salta.core.compile.DirectoryCompiledClassCache;
+import com.github.ruediste.salta.core.compile.ResourceCompiledClassCache;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+
+/**
+ * Compiles the static bindings ahead of time and creates a fresh injector
+ * using the compiled classes.
+ */
+public class AheadOfTimeCompilationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final AtomicInteger dependencyCount = new AtomicInteger();
+
+	@Singleton
+	public static class Dependency {
+		public Dependency() {
+			dependencyCount.incrementAndGet();
+		}
+	}
+
+	public static class Service {
+		@Inject
+		public Dependency dependency;
+	}
+
+	private static class Module extends AbstractModule {
+		private final CompiledClassCache cache;
+		private final boolean aheadOfTimeCompilation;
+
+		Module(CompiledClassCache cache, boolean aheadOfTimeCompilation) {
+			this.cache = cache;
+			this.aheadOfTimeCompilation = aheadOfTimeCompilation;
+		}
+
+		@Override
+		protected void configure() throws Exception {
+			config().standardConfig.config.compiledClassCache = cache;
+			config().standardConfig.config.aheadOfTimeCompilation = aheadOfTimeCompilation;
+			bind(Dependency.class);
+			bind(Service.class);
+		}
+	}
+
+	/**
+	 * Resource cache counting the classes which are not found
+	 */
+	private static class CountingCache extends ResourceCompiledClassCache {
+		final AtomicInteger hits = new AtomicInteger();
+		final AtomicInteger misses = new AtomicInteger();
+
+		CountingCache(ClassLoader classLoader) {
+			super(classLoader);
+		}
+
+		@Override
+		public byte[] get(String fingerprint) {
+			byte[] result = super.get(fingerprint);
+			(result == null ? misses : hits).incrementAndGet();
+			return result;
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		dependencyCount.set(0);
+		Path directory = folder.getRoot().toPath().resolve(ResourceCompiledClassCache.RESOURCE_PREFIX);
+		Injector compilingInjector = Salta
+				.createInjector(new Module(new DirectoryCompiledClassCache(directory), true));
+		compilingInjector.getDelegate().compileStaticBindings();
+		assertEquals(0, dependencyCount.get());
+		assertTrue(directory.toFile().list().length > 0);
+
+		try (URLClassLoader classLoader = new URLClassLoader(new URL[] { folder.getRoot().toURI().toURL() },
+				getClass().getClassLoader())) {
+			CountingCache cache = new CountingCache(classLoader);
+			Injector injector = Salta.createInjector(new Module(cache, false));
+			Service service = injector.getInstance(Service.class);
+			assertNotNull(service.dependency);
+			assertSame(service.dependency, injector.getInstance(Dependency.class));
+			assertEquals(1, dependencyCount.get());
+			assertTrue(cache.hits.get() > 0);
+			assertEquals(0, cache.misses.get());
+		}
+	}
+}
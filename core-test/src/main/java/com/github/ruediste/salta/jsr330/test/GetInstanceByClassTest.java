@@ -0,0 +1,102 @@
+package com.github.ruediste.salta.jsr330.test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+
+import javax.inject.Singleton;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+
+public class GetInstanceByClassTest {
+
+    private Injector injector;
+
+    @Before
+    public void before() {
+        injector = Salta.createInjector();
+    }
+
+    private static class Prototype {
+    }
+
+    @Singleton
+    private static class SingletonClass {
+    }
+
+    private class Inner {
+    }
+
+    private static class Failing {
+        @SuppressWarnings("unused")
+        Failing() {
+            throw new RuntimeException("boom");
+        }
+    }
+
+    @Test
+    public void prototypeCreatesNewInstances() {
+        Prototype a = injector.getInstance(Prototype.class);
+        assertNotNull(a);
+        assertNotSame(a, injector.getInstance(Prototype.class));
+    }
+
+    @Test
+    public void singletonReturnsSameInstance() {
+        assertSame(injector.getInstance(SingletonClass.class), injector.getInstance(SingletonClass.class));
+    }
+
+    @Test
+    public void injectorsDoNotShareInstances() {
+        assertNotSame(injector.getInstance(SingletonClass.class),
+                Salta.createInjector().getInstance(SingletonClass.class));
+    }
+
+    @Test
+    public void missingRecipeIsReportedOnEveryCall() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                injector.getInstance(Inner.class);
+                fail();
+            } catch (SaltaException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Forgotten to make inner class static?"));
+            }
+        }
+    }
+
+    @Test
+    public void exceptionIsWrapped() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                injector.getInstance(Failing.class);
+                fail();
+            } catch (SaltaException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Error while creating instance for"));
+            }
+        }
+    }
+
+    @Test
+    public void injectorIsCollectable() throws InterruptedException {
+        Injector other = Salta.createInjector();
+        other.getInstance(SingletonClass.class);
+        other.getInstance(Prototype.class);
+        WeakReference<Injector> ref = new WeakReference<>(other);
+        other = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+}
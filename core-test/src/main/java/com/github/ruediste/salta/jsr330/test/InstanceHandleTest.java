@@ -0,0 +1,81 @@
+package com.github.ruediste.salta.jsr330.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.InstanceHandle;
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.DependencyKey;
+
+public class InstanceHandleTest {
+
+    private Injector injector;
+
+    public interface Handler {
+    }
+
+    private static class HandlerImpl implements Handler {
+        @Inject
+        Dependency dependency;
+    }
+
+    @Singleton
+    private static class Dependency {
+    }
+
+    private static class Failing {
+        @SuppressWarnings("unused")
+        Failing() {
+            throw new RuntimeException("boom");
+        }
+    }
+
+    @Before
+    public void before() {
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                bind(Handler.class).to(HandlerImpl.class);
+            }
+        });
+    }
+
+    @Test
+    public void createsInstances() {
+        InstanceHandle<Handler> handle = injector.getInstanceHandle(Handler.class);
+        HandlerImpl a = (HandlerImpl) handle.get();
+        HandlerImpl b = (HandlerImpl) handle.get();
+        assertNotSame(a, b);
+        assertSame(a.dependency, b.dependency);
+        assertEquals(DependencyKey.of(Handler.class), handle.getKey());
+    }
+
+    @Test(expected = SaltaException.class)
+    public void unresolvableKeyFailsImmediately() {
+        injector.getInstanceHandle(Runnable.class);
+    }
+
+    @Test
+    public void instantiationErrorIsWrapped() {
+        InstanceHandle<Failing> handle = injector.getInstanceHandle(Failing.class);
+        try {
+            handle.get();
+            fail();
+        } catch (SaltaException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Error while creating instance for"));
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.github.ruediste.salta.jsr330.test;
 
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -58,6 +62,18 @@ public class ProviderDependencyFactoryRuleTest {
         }
     }
 
+    private static class TestClassF {
+        static volatile boolean accessProvider;
+        private Provider<TestClassF> p;
+
+        @Inject
+        public TestClassF(Provider<TestClassF> p) {
+            this.p = p;
+            if (accessProvider)
+                p.get();
+        }
+    }
+
     @Before
     public void setup() {
         injector = Salta.createInjector();
@@ -99,4 +115,24 @@ public class ProviderDependencyFactoryRuleTest {
         }
 
     }
+
+    @Test
+    public void testForbiddenProviderAccessAfterFirstGet() {
+        TestClassF.accessProvider = false;
+        TestClassF f = injector.getInstance(TestClassF.class);
+        assertNotSame(f, f.p.get());
+        TestClassF.accessProvider = true;
+        try {
+            f.p.get();
+            fail();
+        } catch (ProviderAccessBeforeInstanceCreationFinishedException e) {
+            // the provider of f is no longer guarded, but the provider of the
+            // instance created by it is. Thus the reentrant access is detected
+            // one level deeper, not by recursing until the stack overflows
+            assertTrue(Arrays.stream(e.getStackTrace())
+                    .filter(x -> x.getClassName().equals(TestClassF.class.getName())).count() <= 2);
+        } finally {
+            TestClassF.accessProvider = false;
+        }
+    }
 }
@@ -5,7 +5,10 @@ import static java.lang.annotation.ElementType.TYPE;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 
@@ -38,16 +41,21 @@ public class SimpleProxyScopeManagerTest {
 
 	@Before
 	public void setup() {
-		injector = Salta.createInjector(new AbstractModule() {
+		injector = createInjector();
+		injector.injectMembers(this);
+	}
+
+	private Injector createInjector() {
+		return Salta.createInjector(new AbstractModule() {
 
 			@Override
 			protected void configure() throws Exception {
 				SimpleProxyScopeManager handler = new SimpleProxyScopeManager("batch");
 				bindScope(BatchScoped.class, new ScopeImpl(handler));
 				bind(SimpleProxyScopeManager.class).named("batch").toInstance(handler);
+				bind(Greeter.class).to(GreeterImpl.class).in(BatchScoped.class);
 			}
 		});
-		injector.injectMembers(this);
 	}
 
 	private static class A {
@@ -69,6 +77,43 @@ public class SimpleProxyScopeManagerTest {
 		}
 	}
 
+	public interface Greeter {
+		String greet(String name) throws IOException;
+	}
+
+	static class GreeterImpl implements Greeter {
+		int count;
+
+		@Override
+		public String greet(String name) throws IOException {
+			if (name == null)
+				throw new IOException("no name");
+			return "Hello " + name + " " + (++count);
+		}
+	}
+
+	static class C {
+		@Inject
+		Greeter greeter;
+	}
+
+	@BatchScoped
+	static class D {
+		int value;
+
+		int add(int a, long b) {
+			return value += a + (int) b;
+		}
+
+		protected String describe(String prefix, int... values) {
+			return prefix + values.length + ":" + value;
+		}
+
+		final Object self() {
+			return this;
+		}
+	}
+
 	@Test
 	public void testSimple() {
 		A a1 = injector.getInstance(A.class);
@@ -92,4 +137,43 @@ public class SimpleProxyScopeManagerTest {
 		a.b.getValue();
 	}
 
+	@Test
+	public void testInterface() throws Exception {
+		C c = injector.getInstance(C.class);
+		handler.setFreshState();
+		assertEquals("Hello a 1", c.greeter.greet("a"));
+		assertEquals("Hello b 2", c.greeter.greet("b"));
+		try {
+			c.greeter.greet(null);
+			fail();
+		} catch (IOException e) {
+			assertEquals("no name", e.getMessage());
+		}
+		handler.setState(null);
+
+		handler.setFreshState();
+		assertEquals("Hello a 1", c.greeter.greet("a"));
+		handler.setState(null);
+	}
+
+	@Test
+	public void testArgumentsAndNonPublicMethods() {
+		D d = injector.getInstance(D.class);
+		handler.setFreshState();
+		assertEquals(3, d.add(1, 2L));
+		assertEquals(6, d.add(1, 2L));
+		assertEquals("x2:6", d.describe("x", 1, 2));
+		// final methods are not delegated
+		assertSame(d, d.self());
+		handler.setState(null);
+	}
+
+	@Test
+	public void testProxyClassSharedAcrossInjectors() {
+		D d1 = injector.getInstance(D.class);
+		D d2 = createInjector().getInstance(D.class);
+		assertNotSame(d1, d2);
+		assertSame(d1.getClass(), d2.getClass());
+	}
+
 }
@@ -0,0 +1,333 @@
+package com.github.ruediste.salta.jsr330.test;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static java.util.stream.Collectors.joining;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import javax.inject.Inject;
+import javax.inject.Scope;
+import javax.inject.Singleton;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.InjectorCallSites;
+import com.github.ruediste.salta.standard.ScopeImpl;
+import com.github.ruediste.salta.standard.StandardInjector;
+import com.github.ruediste.salta.standard.util.SimpleProxyScopeManager;
+import com.github.ruediste.salta.standard.util.SimpleScopeManagerBase.ScopeState;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Resolves cold and warm keys from a large number of virtual threads, with
+ * singleton constructors blocking while they are instantiated. No monitor may
+ * be held while a constructor runs, since blocking while holding a monitor
+ * pins the carrier thread of a virtual thread.
+ *
+ * <p>
+ * If the JVM supports virtual threads, pinning is detected by recording
+ * {@code jdk.VirtualThreadPinned} events with JFR, for plain resolution,
+ * scoped proxies of a {@link SimpleProxyScopeManager} and
+ * {@link InjectorCallSites}. These tests are skipped otherwise. Then only
+ * {@link #resolveFromManyThreads()} runs, using a {@link ForkJoinPool} with a
+ * small parallelism in the role of the carrier threads, and checking the
+ * monitors held by the constructors.
+ * </p>
+ */
+public class VirtualThreadResolutionTest {
+
+    private static final int TASKS = 100_000;
+
+    private static final AtomicInteger blockingCreated = new AtomicInteger();
+    private static final Queue<String> heldMonitors = new ConcurrentLinkedQueue<>();
+
+    private static void recordHeldMonitors() {
+        ThreadInfo[] infos = ManagementFactory.getThreadMXBean()
+                .getThreadInfo(new long[] { Thread.currentThread().getId() }, true, false);
+        // virtual threads are not reported by the thread MX bean
+        if (infos[0] == null)
+            return;
+        for (MonitorInfo monitor : infos[0].getLockedMonitors()) {
+            heldMonitors.add(monitor.getClassName() + " at " + monitor.getLockedStackFrame());
+        }
+    }
+
+    @Singleton
+    private static class Blocking {
+        @SuppressWarnings("unused")
+        Blocking() throws InterruptedException {
+            recordHeldMonitors();
+            // simulate I/O in the constructor
+            Thread.sleep(50);
+            blockingCreated.incrementAndGet();
+        }
+    }
+
+    private static class A {
+        @Inject
+        Blocking blocking;
+
+        @SuppressWarnings("unused")
+        A() {
+            recordHeldMonitors();
+        }
+    }
+
+    private static class B {
+        @Inject
+        A a;
+    }
+
+    private static class C {
+        @Inject
+        B b;
+
+        @Inject
+        Blocking blocking;
+    }
+
+    private static class Warm {
+    }
+
+    @Target({ TYPE, METHOD })
+    @Retention(RUNTIME)
+    @Scope
+    private @interface BatchScoped {
+    }
+
+    private static final AtomicInteger scopedCreated = new AtomicInteger();
+
+    @BatchScoped
+    static class BlockingScoped {
+        public BlockingScoped() throws InterruptedException {
+            // simulate I/O in the constructor
+            Thread.sleep(50);
+            scopedCreated.incrementAndGet();
+        }
+
+        int getValue() {
+            return 1;
+        }
+    }
+
+    static class ScopedConsumer {
+        @Inject
+        BlockingScoped scoped;
+    }
+
+    /**
+     * Blocking singleton requested through the call sites
+     */
+    @Singleton
+    public static class BlockingCallSiteTarget {
+        public BlockingCallSiteTarget() throws InterruptedException {
+            Thread.sleep(50);
+        }
+    }
+
+    private static final Method newVirtualThreadPerTaskExecutor;
+    static {
+        Method tmp;
+        try {
+            tmp = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            tmp = null;
+        }
+        newVirtualThreadPerTaskExecutor = tmp;
+    }
+
+    private interface Workload {
+        void run() throws Exception;
+    }
+
+    private Injector injector;
+
+    private SimpleProxyScopeManager scopeManager;
+
+    @Before
+    public void before() {
+        blockingCreated.set(0);
+        scopedCreated.set(0);
+        heldMonitors.clear();
+        scopeManager = new SimpleProxyScopeManager("batch");
+        injector = Salta.createInjector(new AbstractModule() {
+
+            @Override
+            protected void configure() throws Exception {
+                bindScope(BatchScoped.class, new ScopeImpl(scopeManager));
+            }
+        });
+        injector.getInstance(Warm.class);
+    }
+
+    @Test
+    public void resolveFromManyThreads() throws Exception {
+        List<Class<?>> keys = Arrays.asList(Warm.class, A.class, B.class, C.class, Blocking.class);
+        ExecutorService executor = createExecutor();
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < TASKS; i++) {
+                Class<?> key = keys.get(i % keys.size());
+                results.add(executor.submit(() -> injector.getInstance(key)));
+            }
+            for (Future<Object> result : results)
+                assertNotNull(result.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, blockingCreated.get());
+        assertTrue("monitors held during instantiation: " + heldMonitors, heldMonitors.isEmpty());
+    }
+
+    @Test
+    public void testNoPinningWhileResolving() throws Exception {
+        assumeVirtualThreads();
+        List<Class<?>> keys = Arrays.asList(Warm.class, A.class, B.class, C.class, Blocking.class);
+        assertNotPinned(() -> runInVirtualThreads(1000, i -> injector.getInstance(keys.get(i % keys.size()))));
+        assertEquals(1, blockingCreated.get());
+    }
+
+    @Test
+    public void testNoPinningInProxyScope() throws Exception {
+        assumeVirtualThreads();
+        ScopedConsumer consumer = injector.getInstance(ScopedConsumer.class);
+        // the constructor of the proxy class might have been run
+        scopedCreated.set(0);
+        ScopeState state = scopeManager.createConcurrentState();
+        assertNotPinned(() -> runInVirtualThreads(1000, i -> {
+            int[] value = new int[1];
+            scopeManager.inScopeDo(state, () -> value[0] = consumer.scoped.getValue());
+            return value[0];
+        }));
+        assertEquals(1, scopedCreated.get());
+    }
+
+    @Test
+    public void testNoPinningInCallSites() throws Exception {
+        assumeVirtualThreads();
+        String name = "virtualThreads-" + System.identityHashCode(this);
+        StandardInjector standardInjector = injector.getDelegate();
+        try {
+            assertNotPinned(() -> runInVirtualThreads(1000, i -> {
+                if (i % 100 == 0)
+                    InjectorCallSites.link(name, standardInjector);
+                CallSite site = InjectorCallSites.bootstrap(MethodHandles.lookup(), "getInstance",
+                        MethodType.methodType(BlockingCallSiteTarget.class), name, BlockingCallSiteTarget.class);
+                try {
+                    return site.dynamicInvoker().invoke();
+                } catch (SaltaException e) {
+                    // not linked yet
+                    return e;
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }));
+        } finally {
+            InjectorCallSites.link(name, null);
+        }
+    }
+
+    private static void assumeVirtualThreads() {
+        Assume.assumeTrue("virtual threads are not available", newVirtualThreadPerTaskExecutor != null);
+    }
+
+    /**
+     * Run the tasks in virtual threads and wait for the results
+     */
+    private static void runInVirtualThreads(int count, IntFunction<Object> task) throws Exception {
+        ExecutorService executor = createExecutor();
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int nr = i;
+                results.add(executor.submit(() -> task.apply(nr)));
+            }
+            for (Future<Object> result : results)
+                assertNotNull(result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Run the workload while recording with JFR and fail if a virtual thread
+     * was pinned by Salta
+     */
+    private static void assertNotPinned(Workload workload) throws Exception {
+        Path file = Files.createTempFile("virtualThreadPinned", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            workload.run();
+            recording.stop();
+            recording.dump(file);
+
+            List<String> pinned = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getStackTrace() == null)
+                    continue;
+                List<RecordedFrame> frames = event.getStackTrace().getFrames();
+                if (frames.stream().anyMatch(VirtualThreadResolutionTest::isSaltaFrame))
+                    pinned.add(frames.stream()
+                            .map(f -> f.getMethod().getType().getName() + "." + f.getMethod().getName())
+                            .collect(joining("\n  ", "\n  ", "")));
+            }
+            assertTrue("virtual threads pinned at: " + pinned, pinned.isEmpty());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static boolean isSaltaFrame(RecordedFrame frame) {
+        String type = frame.getMethod().getType().getName();
+        return type.startsWith("com.github.ruediste.salta.")
+                && !type.startsWith(VirtualThreadResolutionTest.class.getName());
+    }
+
+    private static ExecutorService createExecutor() {
+        if (newVirtualThreadPerTaskExecutor == null)
+            return new ForkJoinPool(2);
+        try {
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
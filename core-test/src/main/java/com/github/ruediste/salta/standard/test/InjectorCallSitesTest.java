@@ -0,0 +1,195 @@
+package com.github.ruediste.salta.standard.test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.inject.Singleton;
+
+import org.junit.After;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.InjectorCallSites;
+import com.github.ruediste.salta.standard.StandardInjector;
+
+public class InjectorCallSitesTest {
+
+	@Singleton
+	public static class TestSingleton {
+	}
+
+	public static class Failing {
+		public Failing() {
+			throw new RuntimeException("boom");
+		}
+	}
+
+	/**
+	 * Name used by the {@link BootstrappingSingleton}
+	 */
+	private static volatile String bootstrapName;
+
+	/**
+	 * Bootstraps a call site in another thread during construction
+	 */
+	@Singleton
+	public static class BootstrappingSingleton {
+		public BootstrappingSingleton() throws Exception {
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				executor.submit(() -> InjectorCallSites.bootstrap(MethodHandles.lookup(), "getInstance",
+						MethodType.methodType(TestSingleton.class), bootstrapName, TestSingleton.class))
+						.get(10, TimeUnit.SECONDS);
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private final String name = "test-" + System.identityHashCode(this);
+
+	@After
+	public void after() {
+		InjectorCallSites.link(name, null);
+	}
+
+	private StandardInjector createInjector() {
+		return Salta.createInjector().getDelegate();
+	}
+
+	private MethodHandle createCallSite(Class<?> cls) {
+		CallSite site = InjectorCallSites.bootstrap(MethodHandles.lookup(), "getInstance",
+				MethodType.methodType(cls), name, cls);
+		return site.dynamicInvoker();
+	}
+
+	@Test
+	public void testRelink() throws Throwable {
+		MethodHandle site = createCallSite(TestSingleton.class);
+		try {
+			site.invoke();
+			fail();
+		} catch (SaltaException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("No injector linked"));
+		}
+
+		StandardInjector injector1 = createInjector();
+		InjectorCallSites.link(name, injector1);
+		Object instance1 = site.invoke();
+		assertSame(injector1.getInstance(TestSingleton.class), instance1);
+		assertSame(instance1, site.invoke());
+
+		StandardInjector injector2 = createInjector();
+		InjectorCallSites.link(name, injector2);
+		Object instance2 = site.invoke();
+		assertNotSame(instance1, instance2);
+		assertSame(injector2.getInstance(TestSingleton.class), instance2);
+	}
+
+	@Test
+	public void testExceptionWrapped() throws Throwable {
+		InjectorCallSites.link(name, createInjector());
+		MethodHandle site = createCallSite(Failing.class);
+		try {
+			site.invoke();
+			fail();
+		} catch (SaltaException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Error while creating instance for"));
+		}
+	}
+
+	private static class GeneratedClassLoader extends ClassLoader {
+		GeneratedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	@Test
+	public void testInvokeDynamic() throws Throwable {
+		// generate a supplier whose get() method contains an invokedynamic
+		// instruction
+		String className = "com/github/ruediste/salta/standard/test/GeneratedCallSiteSupplier";
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_8, ACC_PUBLIC, className, null, Type.getInternalName(Object.class), null);
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC + ACC_STATIC, "getInstance",
+				Type.getMethodDescriptor(Type.getType(TestSingleton.class)), null, null);
+		mv.visitCode();
+		mv.visitInvokeDynamicInsn("getInstance", Type.getMethodDescriptor(Type.getType(TestSingleton.class)),
+				InjectorCallSites.BOOTSTRAP, name, Type.getType(TestSingleton.class));
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+		Class<?> cls = new GeneratedClassLoader(getClass().getClassLoader()).define(Type.getObjectType(className)
+				.getClassName(), cw.toByteArray());
+		Supplier<TestSingleton> supplier = () -> {
+			try {
+				return (TestSingleton) cls.getMethod("getInstance").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		};
+
+		StandardInjector injector1 = createInjector();
+		InjectorCallSites.link(name, injector1);
+		assertSame(injector1.getInstance(TestSingleton.class), supplier.get());
+
+		StandardInjector injector2 = createInjector();
+		InjectorCallSites.link(name, injector2);
+		assertSame(injector2.getInstance(TestSingleton.class), supplier.get());
+	}
+
+	@Test
+	public void testBootstrapWhileLinking() throws Throwable {
+		bootstrapName = name;
+		MethodHandle site = createCallSite(BootstrappingSingleton.class);
+		StandardInjector injector = createInjector();
+		InjectorCallSites.link(name, injector);
+		assertSame(injector.getInstance(BootstrappingSingleton.class), site.invoke());
+	}
+
+	@Test
+	public void testCallSitesAndInjectorCollectable() throws Throwable {
+		StandardInjector injector = createInjector();
+		InjectorCallSites.link(name, injector);
+		CallSite site = InjectorCallSites.bootstrap(MethodHandles.lookup(), "getInstance",
+				MethodType.methodType(TestSingleton.class), name, TestSingleton.class);
+		assertSame(injector.getInstance(TestSingleton.class), site.dynamicInvoker().invoke());
+		WeakReference<CallSite> siteRef = new WeakReference<>(site);
+		WeakReference<StandardInjector> injectorRef = new WeakReference<>(injector);
+		site = null;
+		injector = null;
+		InjectorCallSites.link(name, null);
+		for (int i = 0; i < 50 && (siteRef.get() != null || injectorRef.get() != null); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(siteRef.get());
+		assertNull(injectorRef.get());
+	}
+}
@@ -0,0 +1,205 @@
+package com.github.ruediste.salta.standard.test.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.InstanceHandle;
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.Stage;
+import com.github.ruediste.salta.standard.config.LazySingletonScope;
+import com.github.ruediste.salta.standard.config.SingletonScope.SingletonAccessBeforeConstructionFinishedException;
+
+public class LazySingletonScopeTest {
+
+	private static final AtomicInteger expensiveCount = new AtomicInteger();
+
+	@Singleton
+	private static class Expensive {
+		Expensive() {
+			expensiveCount.incrementAndGet();
+		}
+	}
+
+	private static class Consumer {
+		@Inject
+		Expensive expensive;
+	}
+
+	private static volatile boolean fail;
+
+	@Singleton
+	private static class Failing {
+		Failing() {
+			if (fail)
+				throw new RuntimeException("boom");
+		}
+	}
+
+	private static class FailingConsumer {
+		@Inject
+		Failing failing;
+	}
+
+	@Singleton
+	private static class Reentrant {
+		@Inject
+		Reentrant(Injector injector) {
+			injector.getInstanceHandle(ReentrantConsumer.class).get();
+		}
+	}
+
+	private static class ReentrantConsumer {
+		@Inject
+		Reentrant reentrant;
+	}
+
+	private static CountDownLatch crossLatch;
+
+	@Singleton
+	private static class CrossA {
+		@Inject
+		CrossA(Injector injector) throws InterruptedException {
+			crossLatch.countDown();
+			crossLatch.await();
+			injector.getInstanceHandle(CrossBConsumer.class).get();
+		}
+	}
+
+	@Singleton
+	private static class CrossB {
+		@Inject
+		CrossB(Injector injector) throws InterruptedException {
+			crossLatch.countDown();
+			crossLatch.await();
+			injector.getInstanceHandle(CrossAConsumer.class).get();
+		}
+	}
+
+	private static class CrossAConsumer {
+		@Inject
+		CrossA a;
+	}
+
+	private static class CrossBConsumer {
+		@Inject
+		CrossB b;
+	}
+
+	@Before
+	public void setup() {
+		expensiveCount.set(0);
+		fail = false;
+	}
+
+	private Injector createInjector(Stage stage, boolean useHiddenClasses) {
+		return Salta.createInjector(stage, new AbstractModule() {
+
+			@Override
+			protected void configure() throws Exception {
+				config().standardConfig.singletonScope = new LazySingletonScope();
+				config().standardConfig.config.useHiddenClasses = useHiddenClasses;
+				bind(Expensive.class);
+			}
+		});
+	}
+
+	@Test
+	public void testInstantiatedOnFirstAccess() {
+		doTestInstantiatedOnFirstAccess(false);
+	}
+
+	@Test
+	public void testInstantiatedOnFirstAccessHiddenClasses() {
+		doTestInstantiatedOnFirstAccess(true);
+	}
+
+	private void doTestInstantiatedOnFirstAccess(boolean useHiddenClasses) {
+		Injector injector = createInjector(Stage.DEVELOPMENT, useHiddenClasses);
+		InstanceHandle<Consumer> handle = injector.getInstanceHandle(Consumer.class);
+		assertEquals(0, expensiveCount.get());
+		Expensive expensive = handle.get().expensive;
+		assertEquals(1, expensiveCount.get());
+		assertSame(expensive, handle.get().expensive);
+		assertSame(expensive, injector.getInstance(Expensive.class));
+		assertEquals(1, expensiveCount.get());
+	}
+
+	@Test
+	public void testNoEagerInstantiation() {
+		Injector injector = createInjector(Stage.PRODUCTION, false);
+		assertEquals(0, expensiveCount.get());
+		injector.getInstance(Consumer.class);
+		assertEquals(1, expensiveCount.get());
+	}
+
+	@Test
+	public void testFailedInstantiationIsRetried() {
+		Injector injector = createInjector(Stage.DEVELOPMENT, false);
+		InstanceHandle<FailingConsumer> handle = injector.getInstanceHandle(FailingConsumer.class);
+		fail = true;
+		try {
+			handle.get();
+			fail();
+		} catch (SaltaException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("boom"));
+		}
+		fail = false;
+		Failing failing = handle.get().failing;
+		assertSame(failing, handle.get().failing);
+	}
+
+	@Test
+	public void testRequestedDuringConstruction() {
+		Injector injector = createInjector(Stage.DEVELOPMENT, false);
+		try {
+			injector.getInstanceHandle(ReentrantConsumer.class).get();
+			fail();
+		} catch (SaltaException e) {
+			assertTrue(e.getRecursiveCauses()
+					.anyMatch(x -> x instanceof SingletonAccessBeforeConstructionFinishedException));
+		}
+	}
+
+	@Test
+	public void testCircleAcrossThreads() throws Exception {
+		Injector injector = createInjector(Stage.DEVELOPMENT, false);
+		InstanceHandle<CrossAConsumer> aHandle = injector.getInstanceHandle(CrossAConsumer.class);
+		InstanceHandle<CrossBConsumer> bHandle = injector.getInstanceHandle(CrossBConsumer.class);
+		crossLatch = new CountDownLatch(2);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> a = executor.submit(() -> aHandle.get());
+			Future<?> b = executor.submit(() -> bHandle.get());
+			for (Future<?> result : Arrays.asList(a, b)) {
+				try {
+					result.get(10, TimeUnit.SECONDS);
+					fail();
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("Circle"));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -2,6 +2,20 @@ package com.github.ruediste.salta.standard.test.config;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -10,8 +24,15 @@ import javax.inject.Singleton;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.core.StaticBinding;
+import com.github.ruediste.salta.jsr330.AbstractModule;
 import com.github.ruediste.salta.jsr330.Injector;
 import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.standard.Stage;
+import com.github.ruediste.salta.standard.config.SingletonInstantiationRecorder.Node;
+import com.github.ruediste.salta.standard.config.SingletonScope.SingletonAccessBeforeConstructionFinishedException;
+import com.google.common.reflect.TypeToken;
 
 public class SingletonScopeTest {
 
@@ -59,6 +80,102 @@ public class SingletonScopeTest {
 		CircularA a;
 	}
 
+	private static final AtomicInteger leafCount = new AtomicInteger();
+
+	/**
+	 * If set, the construction of the {@link Leaf} waits for this latch
+	 */
+	private static volatile CountDownLatch leafGate;
+
+	@Singleton
+	private static class Leaf {
+		@Inject
+		Leaf() throws InterruptedException {
+			leafCount.incrementAndGet();
+			CountDownLatch gate = leafGate;
+			if (gate != null)
+				gate.await();
+		}
+	}
+
+	/**
+	 * Counted down by the {@link Rendezvous} singletons. Each of them waits
+	 * until all have been started, which only succeeds if they are
+	 * instantiated concurrently
+	 */
+	private static CountDownLatch rendezvousLatch;
+
+	private static class Rendezvous {
+		Rendezvous() throws InterruptedException {
+			rendezvousLatch.countDown();
+			if (!rendezvousLatch.await(10, TimeUnit.SECONDS))
+				throw new RuntimeException("singletons were not instantiated concurrently");
+		}
+	}
+
+	private static class RendezvousA extends Rendezvous {
+		@Inject
+		RendezvousA() throws InterruptedException {
+		}
+	}
+
+	private static class RendezvousB extends Rendezvous {
+		@Inject
+		RendezvousB() throws InterruptedException {
+		}
+	}
+
+	@Singleton
+	private static class MiddleA {
+		@Inject
+		Leaf leaf;
+	}
+
+	@Singleton
+	private static class MiddleB {
+		@Inject
+		Leaf leaf;
+	}
+
+	@Singleton
+	private static class Root {
+		@Inject
+		MiddleA a;
+
+		@Inject
+		MiddleB b;
+	}
+
+	@Singleton
+	private static class SelfRequesting {
+		@Inject
+		SelfRequesting(Injector injector) {
+			injector.getInstance(SelfRequesting.class);
+		}
+	}
+
+	private static CountDownLatch crossLatch;
+
+	@Singleton
+	private static class CrossA {
+		@Inject
+		CrossA(Injector injector) throws InterruptedException {
+			crossLatch.countDown();
+			crossLatch.await();
+			injector.getInstance(CrossB.class);
+		}
+	}
+
+	@Singleton
+	private static class CrossB {
+		@Inject
+		CrossB(Injector injector) throws InterruptedException {
+			crossLatch.countDown();
+			crossLatch.await();
+			injector.getInstance(CrossA.class);
+		}
+	}
+
 	@Before
 	public void setup() {
 		injector = Salta.createInjector();
@@ -83,4 +200,141 @@ public class SingletonScopeTest {
 		CircularA a = injector.getInstance(CircularA.class);
 		assertSame(a, a.b.get().a);
 	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		leafCount.set(0);
+		leafGate = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Leaf>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+				results.add(executor.submit(() -> injector.getInstance(Leaf.class)));
+			leafGate.countDown();
+			for (Future<Leaf> result : results)
+				assertSame(results.get(0).get(), result.get());
+		} finally {
+			leafGate = null;
+			executor.shutdown();
+		}
+		assertEquals(1, leafCount.get());
+	}
+
+	@Test
+	public void testRequestedDuringConstruction() {
+		try {
+			injector.getInstance(SelfRequesting.class);
+			fail();
+		} catch (SaltaException e) {
+			assertTrue(e.getRecursiveCauses()
+					.anyMatch(x -> x instanceof SingletonAccessBeforeConstructionFinishedException));
+		}
+	}
+
+	@Test
+	public void testCircleAcrossThreads() throws Exception {
+		crossLatch = new CountDownLatch(2);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> a = executor.submit(() -> injector.getInstance(CrossA.class));
+			Future<?> b = executor.submit(() -> injector.getInstance(CrossB.class));
+			for (Future<?> result : Arrays.asList(a, b)) {
+				try {
+					result.get(10, TimeUnit.SECONDS);
+					fail();
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("Circle"));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testParallelEagerInstantiation() {
+		leafCount.set(0);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			injector = Salta.createInjector(Stage.PRODUCTION, new AbstractModule() {
+
+				@Override
+				protected void configure() throws Exception {
+					config().standardConfig.eagerInstantiationPool = pool;
+					bind(Root.class);
+					bind(MiddleA.class);
+					bind(MiddleB.class);
+					bind(Leaf.class);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(1, leafCount.get());
+		Root root = injector.getInstance(Root.class);
+		assertSame(root.a.leaf, root.b.leaf);
+		assertSame(root.a, injector.getInstance(MiddleA.class));
+
+		List<Node> path = injector.getDelegate().getEagerInstantiationRecorder().getCriticalPath();
+		assertEquals(3, path.size());
+		assertTrue(((StaticBinding) path.get(0).getBinding()).getPossibleTypes().contains(TypeToken.of(Root.class)));
+		assertTrue(((StaticBinding) path.get(2).getBinding()).getPossibleTypes().contains(TypeToken.of(Leaf.class)));
+		assertTrue(path.get(2).getDurationNanos() > 0);
+		assertEquals(4, injector.getDelegate().getEagerInstantiationRecorder().getNodes().size());
+		assertEquals(2, path.get(0).getDependencies().size());
+	}
+
+	@Singleton
+	private static class Unrelated {
+	}
+
+	@Singleton
+	private static class SpawningThread {
+		@Inject
+		SpawningThread(Injector injector) throws InterruptedException {
+			Thread thread = new Thread(() -> injector.getInstance(Unrelated.class));
+			thread.start();
+			thread.join();
+		}
+	}
+
+	@Test
+	public void testParallelEagerInstantiationRecordsOnlyDAG() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			injector = Salta.createInjector(Stage.PRODUCTION, new AbstractModule() {
+
+				@Override
+				protected void configure() throws Exception {
+					config().standardConfig.eagerInstantiationPool = pool;
+					bind(SpawningThread.class);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		for (Node node : injector.getDelegate().getEagerInstantiationRecorder().getNodes())
+			assertTrue(node.toString(), node.getBinding() instanceof StaticBinding);
+		assertEquals(1, injector.getDelegate().getEagerInstantiationRecorder().getCriticalPath().size());
+	}
+
+	@Test
+	public void testEagerSingletonsInstantiatedConcurrently() {
+		rendezvousLatch = new CountDownLatch(2);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			injector = Salta.createInjector(new AbstractModule() {
+
+				@Override
+				protected void configure() throws Exception {
+					config().standardConfig.eagerInstantiationPool = pool;
+					bind(RendezvousA.class).asEagerSingleton();
+					bind(RendezvousB.class).asEagerSingleton();
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(0, rendezvousLatch.getCount());
+	}
 }
@@ -5,6 +5,8 @@ open module com.github.ruediste.salta.test {
 	requires org.objectweb.asm.commons;
 	requires junit;
 	requires java.logging;
+	requires java.management;
+	requires jdk.jfr;
 	requires org.mockito;
 	requires javax.inject.tck;
 	requires net.bytebuddy;
@@ -8,7 +8,7 @@ import com.github.ruediste.salta.core.compile.SupplierRecipe;
  */
 public abstract class Binding extends AttachedPropertyBearerBase {
 
-	private SupplierRecipe recipe;
+	private volatile SupplierRecipe recipe;
 	private Scope scope;
 	boolean creatingRecipe;
 
@@ -22,9 +22,10 @@ public abstract class Binding extends AttachedPropertyBearerBase {
 
 	/**
 	 * Create the {@link SupplierRecipe} for this binding if it does not exist yet.
-	 * If the binding is already created, the passed context will be ignored. This
-	 * method is always called with the {@link CoreInjector#recipeLock} held, thus
-	 * no thread synchronization is needed.
+	 * If the binding is already created, the passed context will be ignored. The
+	 * recipe is created while holding the lock of this binding (see
+	 * {@link RecipeCreationContext#getLockManager()}), thus it is created only
+	 * once even if multiple threads request it concurrently.
 	 *
 	 * <p>
 	 * The returned recipe is ready to be compiled, even before the actions queued
@@ -33,17 +34,22 @@ public abstract class Binding extends AttachedPropertyBearerBase {
 	 */
 	public SupplierRecipe getOrCreateRecipe(RecipeCreationContext ctx) {
 		return ctx.withBinding(this, () -> {
-			if (recipe == null) {
-				if (creatingRecipe)
-					throw new RecursiveRecipeCreationDetectedException();
-				creatingRecipe = true;
-				try {
-					recipe = createRecipe(ctx);
-				} finally {
-					creatingRecipe = false;
+			SupplierRecipe result = recipe;
+			if (result != null)
+				return result;
+			return ctx.getLockManager().withLock(this, () -> {
+				if (recipe == null) {
+					if (creatingRecipe)
+						throw new RecursiveRecipeCreationDetectedException();
+					creatingRecipe = true;
+					try {
+						recipe = createRecipe(ctx);
+					} finally {
+						creatingRecipe = false;
+					}
 				}
-			}
-			return recipe;
+				return recipe;
+			});
 		});
 	}
 
@@ -1,9 +1,12 @@
 package com.github.ruediste.salta.core;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -13,28 +16,44 @@ import com.github.ruediste.salta.core.compile.SupplierRecipe;
 
 public class CoreInjector {
     /**
-     * Lock object for recipe creation and compilation.
+     * Locks used to coordinate recipe creation and compilation. Locks are
+     * acquired per {@link CoreDependencyKey} and per {@link Binding}, such that
+     * unrelated keys can be resolved concurrently.
      */
+    private final KeyLockManager lockManager = new KeyLockManager();
+
+    /**
+     * Former lock object for recipe creation and compilation. It is no longer
+     * used by the injector, synchronizing on it does not exclude any recipe
+     * creation or compilation.
+     * 
+     * @deprecated use the per key locks of the {@link #getLockManager() lock
+     *             manager} instead
+     */
+    @Deprecated
     public final Object recipeLock = new Object();
 
-    @SuppressWarnings("unused")
     private CoreInjectorConfiguration config;
 
     private final RecipeCompiler compiler;
 
     private ConcurrentHashMap<CoreDependencyKey<?>, Optional<CompiledSupplier>> compiledRecipeCache = new ConcurrentHashMap<>();
 
-    private HashMap<CoreDependencyKey<?>, Optional<Function<RecipeCreationContext, SupplierRecipe>>> recipeCache = new HashMap<>();
+    private ConcurrentHashMap<CoreDependencyKey<?>, Optional<Function<RecipeCreationContext, SupplierRecipe>>> recipeCache = new ConcurrentHashMap<>();
 
     private List<CreationRule> creationRules;
 
+    private final List<BiConsumer<CoreDependencyKey<?>, CompiledSupplier>> compiledRecipeReplacedListeners = new CopyOnWriteArrayList<>();
+
     /**
      * Create and initialize this injector
      */
     public CoreInjector(CoreInjectorConfiguration config, List<CreationRule> creationRules) {
         this.config = config;
         this.creationRules = creationRules;
-        compiler = new RecipeCompiler(config.generatedCodeParentClassLoader);
+        compiler = new RecipeCompiler(config.generatedCodeParentClassLoader, config.useHiddenClasses,
+                config.compiledClassCache);
+        compiler.setSizeThreshold(config.recipeSizeThreshold);
     }
 
     @SuppressWarnings("unchecked")
@@ -91,6 +110,26 @@ public class CoreInjector {
         };
     }
 
+    /**
+     * Resolve the compiled recipe of the key and wrap it in a handle, which
+     * creates instances without further lookups.
+     * 
+     * @throws SaltaException
+     *             if the key cannot be resolved
+     */
+    public <T> InstanceHandle<T> getInstanceHandle(CoreDependencyKey<T> key) {
+        CompiledSupplier supplier;
+        try {
+            supplier = getCompiledRecipe(key);
+        } catch (Throwable e) {
+            throw new SaltaException("Error while creating instance handle for " + key, e);
+        }
+        if (supplier instanceof TieredSupplier)
+            // skip the delegation once the recipe is compiled
+            supplier = ((TieredSupplier) supplier).compileNow();
+        return new InstanceHandle<>(key, supplier);
+    }
+
     public CompiledSupplier getCompiledRecipe(CoreDependencyKey<?> key) {
         Optional<CompiledSupplier> tryGetCompiledRecipe = tryGetCompiledRecipe(key);
         if (!tryGetCompiledRecipe.isPresent())
@@ -98,32 +137,145 @@ public class CoreInjector {
         return tryGetCompiledRecipe.get();
     }
 
+    /**
+     * Register a listener which is notified whenever the compiled recipe of a
+     * key is replaced in the cache, which happens once a {@link TieredSupplier}
+     * has been compiled. Allows copies of the compiled recipes kept outside of
+     * this injector to be updated.
+     */
+    public void addCompiledRecipeReplacedListener(BiConsumer<CoreDependencyKey<?>, CompiledSupplier> listener) {
+        compiledRecipeReplacedListeners.add(listener);
+    }
+
     public Optional<CompiledSupplier> tryGetCompiledRecipe(CoreDependencyKey<?> key) {
         // use Double Checked Locking
         Optional<CompiledSupplier> compiledRecipe = compiledRecipeCache.get(key);
         if (compiledRecipe != null)
             return compiledRecipe;
 
-        synchronized (recipeLock) {
-            compiledRecipe = compiledRecipeCache.get(key);
-            if (compiledRecipe == null) {
-                compiledRecipe = tryGetRecipe(key).map(x -> compileSupplier(x));
-                compiledRecipeCache.put(key, compiledRecipe);
+        // Only one thread should compile a key. If waiting for the key would
+        // deadlock, compiling the key twice does no harm, since bindings and
+        // scoped instances are coordinated separately.
+        return lockManager.withLockIfPossible(key, () -> {
+            Optional<CompiledSupplier> result = compiledRecipeCache.get(key);
+            if (result == null) {
+                result = tryGetRecipe(key).map(x -> createSupplier(key, x));
+                Optional<CompiledSupplier> existing = compiledRecipeCache.putIfAbsent(key, result);
+                if (existing != null)
+                    result = existing;
             }
-            return compiledRecipe;
+            return result;
+        });
+    }
+
+    /**
+     * Create the supplier for a key. If the compilation threshold is enabled
+     * and the recipe can be interpreted, a {@link TieredSupplier} is returned.
+     * Otherwise the recipe is compiled immediately.
+     */
+    private CompiledSupplier createSupplier(CoreDependencyKey<?> key, SupplierRecipe recipe) {
+        if (config.compilationThreshold > 0) {
+            CompiledSupplier interpreter = recipe.createInterpreter();
+            if (interpreter != null)
+                return new TieredSupplier(key, recipe, interpreter);
+        }
+        return compileSupplier(recipe);
+    }
+
+    /**
+     * Evaluates a recipe using an interpreter until the
+     * {@link CoreInjectorConfiguration#compilationThreshold} is reached. Then
+     * the recipe is compiled in the background. Afterwards the compiled
+     * supplier is used, and replaces this supplier in the cache of compiled
+     * recipes.
+     */
+    class TieredSupplier implements CompiledSupplier {
+        private final CoreDependencyKey<?> key;
+        private final AtomicInteger invocations = new AtomicInteger();
+
+        /**
+         * Set to null once the compilation is started
+         */
+        private final AtomicReference<SupplierRecipe> recipe;
+        private volatile CompiledSupplier delegate;
+
+        TieredSupplier(CoreDependencyKey<?> key, SupplierRecipe recipe, CompiledSupplier interpreter) {
+            this.key = key;
+            this.recipe = new AtomicReference<>(recipe);
+            this.delegate = interpreter;
+        }
+
+        @Override
+        public Object get() throws Throwable {
+            int threshold = config.compilationThreshold;
+            if (invocations.get() < threshold && invocations.incrementAndGet() == threshold)
+                startCompilation();
+            return delegate.get();
+        }
+
+        /**
+         * Called by exactly one thread, the one reaching the threshold
+         */
+        private void startCompilation() {
+            SupplierRecipe tmp = recipe.getAndSet(null);
+            if (tmp == null)
+                // already compiled by compileNow()
+                return;
+            config.backgroundCompilationExecutor.execute(() -> {
+                CompiledSupplier compiled;
+                try {
+                    compiled = compileSupplier(tmp);
+                } catch (Exception e) {
+                    // keep using the interpreter
+                    config.backgroundCompilationFailureHandler.accept(key, e);
+                    return;
+                }
+                setCompiled(compiled);
+            });
+        }
+
+        /**
+         * Compile the recipe in the calling thread, unless the compilation has
+         * already been started.
+         * 
+         * @return the compiled supplier, or this supplier if the compilation
+         *         has been started before
+         */
+        CompiledSupplier compileNow() {
+            SupplierRecipe tmp = recipe.getAndSet(null);
+            if (tmp == null)
+                return this;
+            CompiledSupplier compiled = compileSupplier(tmp);
+            setCompiled(compiled);
+            return compiled;
+        }
+
+        private void setCompiled(CompiledSupplier compiled) {
+            delegate = compiled;
+            if (compiledRecipeCache.replace(key, Optional.of(this), Optional.of(compiled)))
+                for (BiConsumer<CoreDependencyKey<?>, CompiledSupplier> listener : compiledRecipeReplacedListeners)
+                    listener.accept(key, compiled);
+        }
+
+        @Override
+        public String toString() {
+            return "TieredSupplier[" + key + "]";
         }
     }
 
     public CompiledSupplier compileSupplier(SupplierRecipe recipe) {
-        synchronized (recipeLock) {
+        for (ResolutionListener listener : config.resolutionListeners)
+            listener.compilationStarted(recipe);
+        try {
             return compiler.compileSupplier(recipe);
+        } finally {
+            for (ResolutionListener listener : config.resolutionListeners)
+                listener.compilationFinished(recipe);
         }
     }
 
     public CompiledFunction compileFunction(FunctionRecipe recipe) {
-        synchronized (recipeLock) {
-            return compiler.compileFunction(recipe);
-        }
+        return compiler.compileFunction(recipe);
     }
 
     public SupplierRecipe getRecipe(CoreDependencyKey<?> key) {
@@ -161,32 +313,38 @@ public class CoreInjector {
     }
 
     public Optional<SupplierRecipe> tryGetRecipe(CoreDependencyKey<?> key) {
-        return withRecipeCreationContext(ctx -> tryGetRecipeFunc(key).map(f -> f.apply(ctx)));
+        for (ResolutionListener listener : config.resolutionListeners)
+            listener.recipeCreationStarted(key);
+        try {
+            return withRecipeCreationContext(ctx -> tryGetRecipeFunc(key).map(f -> f.apply(ctx)));
+        } finally {
+            for (ResolutionListener listener : config.resolutionListeners)
+                listener.recipeCreationFinished(key);
+        }
     }
 
     /**
-     * Get the recipe for a key
+     * Get the recipe for a key. No lock is held while evaluating the
+     * {@link CreationRule}s. If multiple threads race for the same key, the
+     * first result is cached and returned to all of them.
      */
     public Optional<Function<RecipeCreationContext, SupplierRecipe>> tryGetRecipeFunc(CoreDependencyKey<?> key) {
-        // acquire the recipe lock
-        synchronized (recipeLock) {
-            Optional<Function<RecipeCreationContext, SupplierRecipe>> result = recipeCache.get(key);
-            if (result == null) {
-                try {
-                    result = createRecipe(key);
-                    recipeCache.put(key, result);
-                } catch (Throwable t) {
-                    recipeCache.remove(key);
-                    throw new SaltaException("Error while creating recipe for " + key, t);
-                }
+        Optional<Function<RecipeCreationContext, SupplierRecipe>> result = recipeCache.get(key);
+        if (result == null) {
+            try {
+                result = createRecipe(key);
+            } catch (Throwable t) {
+                throw new SaltaException("Error while creating recipe for " + key, t);
             }
-            return result;
+            Optional<Function<RecipeCreationContext, SupplierRecipe>> existing = recipeCache.putIfAbsent(key, result);
+            if (existing != null)
+                result = existing;
         }
+        return result;
     }
 
     /**
-     * Create a recipe. Expects the calling thread to own the
-     * {@link #recipeLock}
+     * Create a recipe.
      */
     private Optional<Function<RecipeCreationContext, SupplierRecipe>> createRecipe(CoreDependencyKey<?> key) {
         try {
@@ -227,4 +385,12 @@ public class CoreInjector {
         return compiler;
     }
 
+    public CoreInjectorConfiguration getConfig() {
+        return config;
+    }
+
+    public KeyLockManager getLockManager() {
+        return lockManager;
+    }
+
 }
@@ -4,11 +4,16 @@ import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 
 import org.objectweb.asm.commons.GeneratorAdapter;
 
 import com.github.ruediste.salta.core.attachedProperties.AttachedPropertyBearerBase;
+import com.github.ruediste.salta.core.compile.CompiledClassCache;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
+import com.github.ruediste.salta.core.compile.ResourceCompiledClassCache;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
 
 /**
@@ -47,5 +52,70 @@ public class CoreInjectorConfiguration extends AttachedPropertyBearerBase {
 		return result;
 	}
 
+	/**
+	 * Listeners notified around the creation and compilation of recipes
+	 */
+	public final List<ResolutionListener> resolutionListeners = new ArrayList<>();
+
 	public ClassLoader generatedCodeParentClassLoader = Thread.currentThread().getContextClassLoader();
+
+	/**
+	 * If true, the compiled recipes are defined as hidden classes. They can be
+	 * unloaded as soon as they are not used anymore and access private
+	 * constructors, fields and methods directly instead of through
+	 * invokedynamic. Requires Java 16 or later.
+	 */
+	public boolean useHiddenClasses;
+
+	/**
+	 * If set, the bytecode of compiled recipes is looked up in and stored to
+	 * this cache. Use a {@link ResourceCompiledClassCache} to use the classes
+	 * compiled ahead of time by the salta maven plugin.
+	 */
+	public CompiledClassCache compiledClassCache;
+
+	/**
+	 * If true, the injector is only used to compile recipes ahead of time, see
+	 * {@code StandardInjector.compileStaticBindings()}. The compiled recipes
+	 * are never evaluated, thus no instances are created while creating the
+	 * recipes, and eager instantiations are skipped.
+	 */
+	public boolean aheadOfTimeCompilation;
+
+	/**
+	 * If the code compiled for a recipe is bigger than this number of bytes,
+	 * its sub recipes are compiled to separate methods. Use
+	 * {@link SupplierRecipe#INLINING_SIZE_THRESHOLD} to keep the generated
+	 * methods small enough to be inlined by the JIT, which favors the
+	 * throughput of deep object graphs over the number of generated classes.
+	 */
+	public int recipeSizeThreshold = SupplierRecipe.DEFAULT_SIZE_THRESHOLD;
+
+	/**
+	 * If larger than zero, the recipes of keys are interpreted (see
+	 * {@link SupplierRecipe#createInterpreter()}) until they have been
+	 * evaluated this number of times. Then they are compiled using the
+	 * {@link #backgroundCompilationExecutor}. This avoids the compilation of
+	 * keys which are only requested a few times. If zero, the recipes are
+	 * compiled when the key is first requested.
+	 */
+	public int compilationThreshold;
+
+	/**
+	 * Executor used to compile recipes which reached the
+	 * {@link #compilationThreshold}
+	 */
+	public Executor backgroundCompilationExecutor = ForkJoinPool.commonPool();
+
+	/**
+	 * Notified if the background compilation of a recipe which reached the
+	 * {@link #compilationThreshold} fails. The recipe is interpreted
+	 * afterwards. By default, the failure is passed to the uncaught exception
+	 * handler of the compiling thread.
+	 */
+	public BiConsumer<CoreDependencyKey<?>, Exception> backgroundCompilationFailureHandler = (key, e) -> {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread,
+				new SaltaException("Error while compiling the recipe of " + key + " in the background", e));
+	};
 }
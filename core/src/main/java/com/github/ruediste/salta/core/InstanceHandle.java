@@ -0,0 +1,56 @@
+package com.github.ruediste.salta.core;
+
+import java.util.function.Supplier;
+
+/**
+ * Handle to create instances of a key, obtained from
+ * {@link CoreInjector#getInstanceHandle(CoreDependencyKey)}. The compiled
+ * recipe of the key is resolved when the handle is created, {@link #get()}
+ * directly evaluates it. Keep the handle around to instantiate the key
+ * repeatedly without any lookup.
+ */
+public final class InstanceHandle<T> implements Supplier<T> {
+
+    private final CoreDependencyKey<T> key;
+    private final CompiledSupplier supplier;
+
+    InstanceHandle(CoreDependencyKey<T> key, CompiledSupplier supplier) {
+        this.key = key;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Create an instance of the key
+     * 
+     * @throws SaltaException
+     *             if the instantiation fails
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get() {
+        try {
+            return (T) supplier.get();
+        } catch (SaltaException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SaltaException("Error while creating instance for " + key, e);
+        }
+    }
+
+    /**
+     * The compiled recipe evaluated by {@link #get()}. Evaluating it directly
+     * avoids the exception wrapping.
+     */
+    public CompiledSupplier getSupplier() {
+        return supplier;
+    }
+
+    public CoreDependencyKey<T> getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return "InstanceHandle<" + key + ">";
+    }
+}
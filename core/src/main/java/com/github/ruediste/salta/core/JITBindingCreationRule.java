@@ -1,8 +1,8 @@
 package com.github.ruediste.salta.core;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
@@ -11,7 +11,7 @@ public class JITBindingCreationRule implements CreationRule {
 
     private List<JITBindingKeyRule> keyRules;
     private List<JITBindingRule> bindingRules;
-    private HashMap<JITBindingKey, JITBinding> jitBindings = new HashMap<>();
+    private ConcurrentHashMap<JITBindingKey, JITBinding> jitBindings = new ConcurrentHashMap<>();
 
     public JITBindingCreationRule(List<JITBindingKeyRule> keyRules, List<JITBindingRule> bindingRules) {
         this.keyRules = keyRules;
@@ -35,7 +35,10 @@ public class JITBindingCreationRule implements CreationRule {
             for (JITBindingRule rule : bindingRules) {
                 jitBinding = rule.apply(jitKey);
                 if (jitBinding != null) {
-                    jitBindings.put(jitKey, jitBinding);
+                    // if another thread was faster, use its binding
+                    JITBinding existing = jitBindings.putIfAbsent(jitKey, jitBinding);
+                    if (existing != null)
+                        jitBinding = existing;
                     break;
                 }
             }
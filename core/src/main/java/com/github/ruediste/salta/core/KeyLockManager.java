@@ -0,0 +1,253 @@
+package com.github.ruediste.salta.core;
+
+import static java.util.stream.Collectors.joining;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Manages reentrant locks identified by arbitrary keys (dependency keys,
+ * bindings, ...). Used to coordinate recipe creation and compilation, such that
+ * unrelated keys can be processed concurrently.
+ *
+ * <p>
+ * Before a thread starts waiting for a lock held by another thread, the
+ * waits-for graph is checked. If waiting would result in a deadlock, the lock
+ * is not acquired. Lock entries are removed as soon as no thread holds or waits
+ * for them.
+ * </p>
+ *
+ * <p>
+ * Waiting is done using {@link ForkJoinPool#managedBlock(ManagedBlocker)}, such
+ * that a {@link ForkJoinPool} can compensate for blocked workers. No monitors
+ * are used, thus virtual threads waiting for a lock do not pin their carrier
+ * thread.
+ * </p>
+ */
+public class KeyLockManager {
+
+    /**
+     * Thrown if acquiring a lock would result in a deadlock between multiple
+     * threads.
+     */
+    public static class LockCycleDetectedException extends SaltaException {
+        private static final long serialVersionUID = 1L;
+
+        LockCycleDetectedException(List<Object> cycle) {
+            super("Detected Dependency Circle across threads: "
+                    + cycle.stream().map(String::valueOf).collect(joining("\n", "\n", "\n")));
+        }
+    }
+
+    private static class KeyLock {
+        final Object key;
+
+        /**
+         * Signalled when the lock is released
+         */
+        final Condition released;
+
+        /**
+         * Thread currently holding the lock. Only accessed while holding the
+         * state lock of the manager
+         */
+        Thread owner;
+
+        /**
+         * Number of (reentrant) acquisitions by the owner. Only accessed while
+         * holding the state lock of the manager
+         */
+        int holdCount;
+
+        /**
+         * Number of acquisitions plus waiting threads. Only accessed while
+         * holding the state lock of the manager
+         */
+        int users;
+
+        KeyLock(Object key, Condition released) {
+            this.key = key;
+            this.released = released;
+        }
+    }
+
+    /**
+     * Guards {@link #locks}, {@link #waitingFor} and the fields of the
+     * {@link KeyLock}s. The owner of a lock is only changed while holding this
+     * lock, thus the cycle detection always sees the current owners.
+     */
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private final HashMap<Object, KeyLock> locks = new HashMap<>();
+    private final HashMap<Thread, KeyLock> waitingFor = new HashMap<>();
+
+    /**
+     * Run the action while holding the lock for the given key.
+     *
+     * @throws LockCycleDetectedException
+     *             if waiting for the lock would result in a deadlock
+     */
+    public <T> T withLock(Object key, Supplier<T> action) {
+        KeyLock lock = acquire(key, true);
+        try {
+            return action.get();
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * Run the action while holding the lock for the given key. If waiting for
+     * the lock would result in a deadlock, the action is run without holding
+     * the lock. Use this method for actions which are only serialized to avoid
+     * duplicate work.
+     */
+    public <T> T withLockIfPossible(Object key, Supplier<T> action) {
+        KeyLock lock = acquire(key, false);
+        if (lock == null)
+            return action.get();
+        try {
+            return action.get();
+        } finally {
+            release(lock);
+        }
+    }
+
+    private KeyLock acquire(Object key, boolean failOnCycle) {
+        Thread current = Thread.currentThread();
+        KeyLock lock;
+        stateLock.lock();
+        try {
+            lock = locks.computeIfAbsent(key, k -> new KeyLock(k, stateLock.newCondition()));
+            if (tryTakeOwnership(lock, current)) {
+                lock.users++;
+                return lock;
+            }
+
+            List<Object> cycle = findCycle(current, lock);
+            if (cycle != null) {
+                if (failOnCycle)
+                    throw new LockCycleDetectedException(cycle);
+                return null;
+            }
+            lock.users++;
+            waitingFor.put(current, lock);
+        } finally {
+            stateLock.unlock();
+        }
+
+        awaitOwnership(lock, current);
+        return lock;
+    }
+
+    /**
+     * Take the ownership of the lock if it is free or already owned by the
+     * current thread. Caller must hold the state lock of the manager.
+     */
+    private boolean tryTakeOwnership(KeyLock lock, Thread current) {
+        if (lock.owner == null) {
+            lock.owner = current;
+            lock.holdCount = 1;
+            return true;
+        }
+        if (lock.owner == current) {
+            lock.holdCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private void awaitOwnership(KeyLock lock, Thread current) {
+        ManagedBlocker blocker = new ManagedBlocker() {
+            boolean owned;
+
+            @Override
+            public boolean isReleasable() {
+                if (!owned) {
+                    stateLock.lock();
+                    try {
+                        owned = tryTakeWaitedForOwnership(lock, current);
+                    } finally {
+                        stateLock.unlock();
+                    }
+                }
+                return owned;
+            }
+
+            @Override
+            public boolean block() {
+                stateLock.lock();
+                try {
+                    while (!owned) {
+                        owned = tryTakeWaitedForOwnership(lock, current);
+                        if (!owned)
+                            lock.released.awaitUninterruptibly();
+                    }
+                } finally {
+                    stateLock.unlock();
+                }
+                return true;
+            }
+        };
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            // never thrown, since the blocker does not wait interruptibly
+            Thread.currentThread().interrupt();
+            throw new SaltaException("Interrupted while waiting for lock", e);
+        }
+    }
+
+    /**
+     * Take the ownership of a lock the current thread is waiting for. Caller
+     * must hold the state lock of the manager.
+     */
+    private boolean tryTakeWaitedForOwnership(KeyLock lock, Thread current) {
+        if (lock.owner != null)
+            return false;
+        lock.owner = current;
+        lock.holdCount = 1;
+        waitingFor.remove(current);
+        return true;
+    }
+
+    private void release(KeyLock lock) {
+        stateLock.lock();
+        try {
+            if (--lock.holdCount == 0) {
+                lock.owner = null;
+                lock.released.signal();
+            }
+            if (--lock.users == 0)
+                locks.remove(lock.key);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Follow the waits-for graph starting at the given lock. Return the keys
+     * of the locks forming a cycle back to the current thread, or null if
+     * there is no cycle. Caller must hold the state lock of the manager.
+     */
+    private List<Object> findCycle(Thread current, KeyLock lock) {
+        List<Object> cycle = new ArrayList<>();
+        cycle.add(lock.key);
+        Thread owner = lock.owner;
+        while (owner != null) {
+            if (owner == current)
+                return cycle;
+            KeyLock next = waitingFor.get(owner);
+            if (next == null)
+                return null;
+            cycle.add(next.key);
+            owner = next.owner;
+        }
+        return null;
+    }
+}
@@ -17,9 +17,28 @@ public interface RecipeCreationContext {
 
     /**
      * get {@link CoreInjector#recipeLock}
+     * 
+     * @deprecated the recipe lock is no longer used by the injector, use the
+     *             per key locks of the {@link #getLockManager() lock manager}
+     *             instead
      */
+    @Deprecated
     Object getRecipeLock();
 
+    /**
+     * get the {@link CoreInjector#getLockManager() lock manager} of the
+     * injector
+     */
+    KeyLockManager getLockManager();
+
+    /**
+     * If true, the recipes are only compiled ahead of time and never evaluated,
+     * see {@link CoreInjectorConfiguration#aheadOfTimeCompilation}. Scopes must
+     * not create instances while creating their recipes, but the recipes have
+     * to compile to the same code as otherwise.
+     */
+    boolean isAheadOfTimeCompilation();
+
     <T> T withBinding(Binding binding, Supplier<T> supplier);
 
     Optional<SupplierRecipe> tryGetRecipe(CoreDependencyKey<?> dependency);
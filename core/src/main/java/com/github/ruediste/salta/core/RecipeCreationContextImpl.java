@@ -91,10 +91,21 @@ public class RecipeCreationContextImpl implements RecipeCreationContext {
     }
 
     @Override
+    @Deprecated
     public Object getRecipeLock() {
         return coreInjector.recipeLock;
     }
 
+    @Override
+    public KeyLockManager getLockManager() {
+        return coreInjector.getLockManager();
+    }
+
+    @Override
+    public boolean isAheadOfTimeCompilation() {
+        return coreInjector.getConfig().aheadOfTimeCompilation;
+    }
+
     @Override
     public Optional<SupplierRecipe> tryGetRecipe(CoreDependencyKey<?> dependency) {
         return coreInjector.tryGetRecipeFunc(dependency).map(f -> f.apply(this));
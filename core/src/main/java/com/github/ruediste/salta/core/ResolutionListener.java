@@ -0,0 +1,29 @@
+package com.github.ruediste.salta.core;
+
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+
+/**
+ * Notified by the {@link CoreInjector} around the creation and the compilation
+ * of recipes, for example to measure the time spent in each phase. Register
+ * with {@link CoreInjectorConfiguration#resolutionListeners}.
+ *
+ * <p>
+ * The calls can be nested, since creating a recipe can instantiate singletons,
+ * which requires their recipes to be compiled. They can also happen
+ * concurrently from multiple threads.
+ * </p>
+ */
+public interface ResolutionListener {
+
+    default void recipeCreationStarted(CoreDependencyKey<?> key) {
+    }
+
+    default void recipeCreationFinished(CoreDependencyKey<?> key) {
+    }
+
+    default void compilationStarted(SupplierRecipe recipe) {
+    }
+
+    default void compilationFinished(SupplierRecipe recipe) {
+    }
+}
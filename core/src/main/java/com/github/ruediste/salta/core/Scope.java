@@ -10,8 +10,9 @@ public interface Scope {
 
     /**
      * Create a recipe. No incoming parameter is on the stack. The scoped
-     * instance is expected afterwards. The calling thread always holds the
-     * {@link CoreInjector#recipeLock}
+     * instance is expected afterwards. May be called from multiple threads
+     * concurrently. Use the {@link RecipeCreationContext#getLockManager() lock
+     * manager} to coordinate per binding.
      * 
      * @param binding
      *            binding which is beeing scoped
@@ -1,23 +1,31 @@
 package com.github.ruediste.salta.core.compile;
 
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
 import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
 import static org.objectweb.asm.Opcodes.ACC_STATIC;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.commons.GeneratorAdapter;
-import org.objectweb.asm.commons.Method;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.standard.util.Accessibility;
 
 /**
  * Context for the compilation of a recipe class. Manages unique names of fields
- * and methods
+ * and methods. Each class is compiled by a single thread, thus this class is
+ * not thread safe.
  */
 public class ClassCompilationContext {
 
@@ -25,29 +33,68 @@ public class ClassCompilationContext {
 
 	public static class FieldEntry {
 		String name;
+		Class<?> type;
 		Object value;
+
+		/**
+		 * If true, the field is static final and initialized by the static
+		 * initializer. Otherwise the field is set using reflection.
+		 */
+		boolean constant;
 	}
 
 	ArrayList<FieldEntry> fields = new ArrayList<>();
 
 	private int methodNr;
-	private final boolean codeSizeEvaluation;
 
 	private final RecipeCompiler compiler;
 
-	public ClassCompilationContext(ClassNode clazz, boolean codeSizeEvaluation, RecipeCompiler compiler) {
+	private Class<?> nestHost;
+	private Lookup nestHostLookup;
+
+	public ClassCompilationContext(ClassNode clazz, RecipeCompiler compiler) {
 		this.clazz = clazz;
-		this.codeSizeEvaluation = codeSizeEvaluation;
 		this.compiler = compiler;
 	}
 
+	/**
+	 * Number of fields and methods of the class at a certain point in time.
+	 * Used to remove the members added by code which is rolled back, see
+	 * {@link MethodCompilationContext.Checkpoint}
+	 */
+	final class MemberCount {
+		private final int fieldCount = fields.size();
+		private final int fieldNodeCount = clazz.fields.size();
+		private final int methodNodeCount = clazz.methods.size();
+		private final int methodNr = ClassCompilationContext.this.methodNr;
+
+		/**
+		 * Remove all members added after this count has been taken
+		 */
+		void rollback() {
+			fields.subList(fieldCount, fields.size()).clear();
+			clazz.fields.subList(fieldNodeCount, clazz.fields.size()).clear();
+			clazz.methods.subList(methodNodeCount, clazz.methods.size()).clear();
+			ClassCompilationContext.this.methodNr = methodNr;
+		}
+	}
+
+	/**
+	 * Add a static field holding the given value. If the compiled code can
+	 * access the field type, the field is final, allowing the JIT to treat the
+	 * value as constant.
+	 */
 	public <T> FieldHandle addField(Class<T> fieldType, T value) {
 		FieldEntry entry = new FieldEntry();
 		entry.name = "field" + fields.size();
+		entry.type = fieldType;
 		entry.value = value;
+		// the static initializer has to cast the value to the field type
+		entry.constant = isClassAccessible(fieldType);
 		fields.add(entry);
 
-		getClazz().visitField(ACC_PUBLIC + ACC_STATIC, entry.name, Type.getDescriptor(fieldType), null, null);
+		getClazz().visitField(ACC_PUBLIC + ACC_STATIC + (entry.constant ? ACC_FINAL : 0), entry.name,
+				Type.getDescriptor(fieldType), null, null);
 
 		return new FieldHandle(fieldType, entry.name);
 	}
@@ -88,13 +135,13 @@ public class ClassCompilationContext {
 	 */
 	public String addMethod(final int access, String name, final String desc, final String[] exceptions,
 			MethodRecipe recipe) {
-		if (codeSizeEvaluation)
-			return name;
 		MethodNode m = new MethodNode(access, name, desc, null, exceptions);
 		getClazz().methods.add(m);
-		GeneratorAdapter mv = new GeneratorAdapter(m.access, new Method(m.name, m.desc), m);
+		CodeSizeEvaluator codeSize = new CodeSizeEvaluator(m);
+		GeneratorAdapter mv = new GeneratorAdapter(m.access, new org.objectweb.asm.commons.Method(m.name, m.desc),
+				codeSize);
 		mv.visitCode();
-		recipe.compile(new MethodCompilationContext(this, mv, access, desc));
+		recipe.compile(new MethodCompilationContext(this, mv, m, codeSize));
 		mv.visitMaxs(0, 0);
 		mv.visitEnd();
 		return m.name;
@@ -108,13 +155,82 @@ public class ClassCompilationContext {
 		return clazz;
 	}
 
-	public boolean isCodeSizeEvaluation() {
-		return codeSizeEvaluation;
+	/**
+	 * Values of the constant fields, in the order expected by the static
+	 * initializer
+	 */
+	public Object[] getConstantFieldValues() {
+		return fields.stream().filter(e -> e.constant).map(e -> e.value).toArray();
+	}
+
+	/**
+	 * Add the static initializer, setting the constant fields. If
+	 * useClassData is true, the values are retrieved using
+	 * {@link MethodHandles#classData(Lookup, String, Class)}, otherwise from the
+	 * {@link RecipeCompiler.CompilerClassLoader} which defined the class.
+	 */
+	public void addStaticInitializer(boolean useClassData) {
+		if (fields.stream().noneMatch(e -> e.constant))
+			return;
+		MethodNode m = new MethodNode(ACC_STATIC, "<clinit>", "()V", null, null);
+		getClazz().methods.add(m);
+		GeneratorAdapter mv = new GeneratorAdapter(m.access, new org.objectweb.asm.commons.Method(m.name, m.desc), m);
+		mv.visitCode();
+
+		// push the values
+		Type valuesType = Type.getType(Object[].class);
+		if (useClassData) {
+			mv.invokeStatic(Type.getType(MethodHandles.class), new org.objectweb.asm.commons.Method("lookup",
+					Type.getType(Lookup.class), new Type[] {}));
+			mv.push("_");
+			mv.push(valuesType);
+			mv.invokeStatic(Type.getType(MethodHandles.class),
+					new org.objectweb.asm.commons.Method("classData", Type.getType(Object.class),
+							new Type[] { Type.getType(Lookup.class), Type.getType(String.class),
+									Type.getType(Class.class) }));
+		} else {
+			mv.push(Type.getObjectType(getInternalClassName()));
+			mv.invokeVirtual(Type.getType(Class.class), new org.objectweb.asm.commons.Method("getClassLoader",
+					Type.getType(ClassLoader.class), new Type[] {}));
+			mv.checkCast(Type.getType(RecipeCompiler.CompilerClassLoader.class));
+			// do not embed the class name as string, the class might be renamed
+			mv.push(Type.getObjectType(getInternalClassName()));
+			mv.invokeVirtual(Type.getType(Class.class), new org.objectweb.asm.commons.Method("getName",
+					Type.getType(String.class), new Type[] {}));
+			mv.invokeVirtual(Type.getType(RecipeCompiler.CompilerClassLoader.class),
+					new org.objectweb.asm.commons.Method("takeFieldValues", valuesType,
+							new Type[] { Type.getType(String.class) }));
+		}
+		mv.checkCast(valuesType);
+
+		// set the fields
+		int index = 0;
+		for (FieldEntry entry : fields) {
+			if (!entry.constant)
+				continue;
+			mv.dup();
+			mv.push(index++);
+			mv.arrayLoad(Type.getType(Object.class));
+			Type type = Type.getType(entry.type);
+			if (entry.type.isPrimitive())
+				mv.unbox(type);
+			else if (!Object.class.equals(entry.type))
+				mv.checkCast(type);
+			mv.putStatic(Type.getObjectType(getInternalClassName()), entry.name, type);
+		}
+		mv.pop();
+		mv.returnValue();
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
 	}
 
-	public void initFields(Class<?> recipeClass) {
-		// init fields
+	/**
+	 * Set the fields which are not initialized by the static initializer
+	 */
+	public void initNonConstantFields(Class<?> recipeClass) {
 		for (FieldEntry entry : fields) {
+			if (entry.constant)
+				continue;
 			try {
 				Field field = recipeClass.getField(entry.name);
 				field.setAccessible(true);
@@ -137,4 +253,94 @@ public class ClassCompilationContext {
 	public ClassLoader getCompiledCodeClassLoader() {
 		return compiler.getLoader();
 	}
+
+	/**
+	 * Determine if the given class can be used by the compiled code. Besides the
+	 * public classes visible from the {@link #getCompiledCodeClassLoader()}, the
+	 * classes in the package of the {@link #getNestHost() nest host} are
+	 * accessible.
+	 */
+	public boolean isClassAccessible(Class<?> cls) {
+		if (Accessibility.isClassAccessible(cls, getCompiledCodeClassLoader()))
+			return true;
+		return nestHost != null && isInPackageOf(nestHost, cls);
+	}
+
+	/**
+	 * Determine if the compiled code can call the given constructor directly.
+	 * If the compiler uses hidden classes, this might cause the compiled class
+	 * to become a nestmate of the declaring class.
+	 */
+	public boolean isConstructorAccessible(Constructor<?> constructor) {
+		return Accessibility.isConstructorAccessible(constructor, getCompiledCodeClassLoader())
+				|| isNestmateAccessible(constructor.getDeclaringClass(), constructor.getParameterTypes());
+	}
+
+	/**
+	 * Determine if the compiled code can call the given method directly. See
+	 * {@link #isConstructorAccessible(Constructor)}
+	 */
+	public boolean isMethodAccessible(Method method) {
+		return Accessibility.isMethodAccessible(method, getCompiledCodeClassLoader())
+				|| isNestmateAccessible(method.getDeclaringClass(), method.getParameterTypes());
+	}
+
+	/**
+	 * Determine if the compiled code can set the given field directly. See
+	 * {@link #isConstructorAccessible(Constructor)}
+	 */
+	public boolean isFieldAccessible(Field field) {
+		if (Accessibility.isFieldAccessible(field, getCompiledCodeClassLoader()))
+			return true;
+		return !Modifier.isFinal(field.getModifiers())
+				&& isNestmateAccessible(field.getDeclaringClass(), field.getType());
+	}
+
+	/**
+	 * Check if a member of the declaring class can be accessed by making the
+	 * compiled class a nestmate of the declaring class. The first member
+	 * determines the nest host, only members of the same nest are accessible
+	 * afterwards.
+	 */
+	private boolean isNestmateAccessible(Class<?> declaringClass, Class<?>... usedTypes) {
+		Class<?> host = nestHost == null ? declaringClass : nestHost;
+		if (host.getNestHost() != declaringClass.getNestHost())
+			return false;
+		for (Class<?> type : usedTypes) {
+			if (!Accessibility.isClassAccessible(type, getCompiledCodeClassLoader()) && !isInPackageOf(host, type))
+				return false;
+		}
+		if (nestHost == null) {
+			Lookup lookup = compiler.tryGetNestmateLookup(declaringClass);
+			if (lookup == null)
+				return false;
+			nestHost = declaringClass;
+			nestHostLookup = lookup;
+		}
+		return true;
+	}
+
+	private boolean isInPackageOf(Class<?> host, Class<?> cls) {
+		while (cls.isArray())
+			cls = cls.getComponentType();
+		if (cls.isPrimitive())
+			return true;
+		return cls.getClassLoader() == host.getClassLoader() && cls.getPackageName().equals(host.getPackageName());
+	}
+
+	/**
+	 * If not null, the compiled class will be defined as hidden nestmate of this
+	 * class
+	 */
+	public Class<?> getNestHost() {
+		return nestHost;
+	}
+
+	/**
+	 * Lookup used to define the compiled class as nestmate of the
+	 * {@link #getNestHost() nest host}
+	 */
+	public Lookup getNestHostLookup() {
+		return nestHostLookup;
+	}
 }
@@ -0,0 +1,28 @@
+package com.github.ruediste.salta.core.compile;
+
+/**
+ * Stores the bytecode of classes generated by the {@link RecipeCompiler}. The
+ * key is a fingerprint of the structure of the generated class, independent of
+ * the name of the class. Thus the stored bytecode is reused whenever a recipe
+ * results in the same class, for example in a later run of the application. If
+ * a binding changes, its recipe results in a different fingerprint, and the
+ * class is compiled again.
+ *
+ * <p>
+ * The values of the fields of a compiled class are not part of the bytecode
+ * and are provided when the class is defined.
+ * </p>
+ */
+public interface CompiledClassCache {
+
+    /**
+     * Return the bytecode stored for the fingerprint, or null if none is found
+     */
+    byte[] get(String fingerprint);
+
+    /**
+     * Store the bytecode for a fingerprint. Might be called from multiple
+     * threads concurrently.
+     */
+    void put(String fingerprint, byte[] bytecode);
+}
@@ -0,0 +1,58 @@
+package com.github.ruediste.salta.core.compile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.github.ruediste.salta.core.SaltaException;
+
+/**
+ * {@link CompiledClassCache} storing the classes as files in a directory. Used
+ * to store the classes compiled ahead of time, which are loaded at runtime by
+ * a {@link ResourceCompiledClassCache}. Using it as a cache between runs does
+ * not speed up the startup, since the class structure is still built and
+ * hashed for every lookup.
+ */
+public class DirectoryCompiledClassCache implements CompiledClassCache {
+
+    private final Path directory;
+
+    public DirectoryCompiledClassCache(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] get(String fingerprint) {
+        try {
+            return Files.readAllBytes(getFile(fingerprint));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new SaltaException("Error while reading compiled class " + fingerprint, e);
+        }
+    }
+
+    @Override
+    public void put(String fingerprint, byte[] bytecode) {
+        try {
+            Files.createDirectories(directory);
+            // write to a temporary file first, such that readers never see
+            // partially written classes
+            Path tmp = Files.createTempFile(directory, fingerprint, ".tmp");
+            Files.write(tmp, bytecode);
+            Files.move(tmp, getFile(fingerprint), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new SaltaException("Error while writing compiled class " + fingerprint, e);
+        }
+    }
+
+    protected Path getFile(String fingerprint) {
+        return directory.resolve(fingerprint + ".class");
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
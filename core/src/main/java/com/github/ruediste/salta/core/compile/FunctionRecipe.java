@@ -2,6 +2,8 @@ package com.github.ruediste.salta.core.compile;
 
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledFunction;
+
 /**
  * Recipe for compiling a function that accepts one argument and produces a
  * result
@@ -33,4 +35,15 @@ public interface FunctionRecipe {
      * 
      */
     Class<?> compileImpl(Class<?> argumentType, GeneratorAdapter mv, MethodCompilationContext ctx);
+
+    /**
+     * Create a function evaluating this recipe without generating any
+     * bytecode. See {@link SupplierRecipe#createInterpreter()}.
+     * 
+     * @return the interpreter, or null if this recipe cannot be interpreted,
+     *         which is the default
+     */
+    default CompiledFunction createInterpreter() {
+        return null;
+    }
 }
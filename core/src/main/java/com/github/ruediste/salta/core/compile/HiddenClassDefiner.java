@@ -0,0 +1,162 @@
+package com.github.ruediste.salta.core.compile;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.V1_7;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.core.compile.RecipeCompiler.CompilerClassLoader;
+
+/**
+ * Defines the classes generated by the {@link RecipeCompiler} as hidden
+ * classes. Hidden classes are not referenced by their class loader and can be
+ * unloaded as soon as they are not used anymore.
+ *
+ * <p>
+ * By default, the classes are defined in the package of an anchor class
+ * loaded by the {@link CompilerClassLoader}. If the compiled code accesses
+ * non-public members of a class, the compiled class is defined as nestmate of
+ * that class instead, allowing direct access to the private members.
+ * </p>
+ *
+ * <p>
+ * Requires Java 16 or later. Since Salta is compiled for Java 12, the hidden
+ * class API is accessed through method handles.
+ * </p>
+ */
+class HiddenClassDefiner {
+
+    /**
+     * First Java version supporting hidden classes with class data
+     */
+    static final int REQUIRED_JAVA_VERSION = 16;
+
+    private static final MethodHandle isHidden;
+    private static final MethodHandle hasFullPrivilegeAccess;
+    private static final MethodHandle defineHiddenClassWithClassData;
+    private static final Object noOptions;
+    private static final Object nestmateOptions;
+
+    static {
+        MethodHandle isHiddenTmp = null;
+        MethodHandle hasFullPrivilegeAccessTmp = null;
+        MethodHandle defineTmp = null;
+        Object noOptionsTmp = null;
+        Object nestmateOptionsTmp = null;
+        if (isSupported()) {
+            try {
+                Lookup lookup = MethodHandles.publicLookup();
+                Class<?> classOptionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+                Class<?> classOptionArrayClass = Array.newInstance(classOptionClass, 0).getClass();
+                isHiddenTmp = lookup.findVirtual(Class.class, "isHidden", MethodType.methodType(boolean.class));
+                hasFullPrivilegeAccessTmp = lookup.findVirtual(Lookup.class, "hasFullPrivilegeAccess",
+                        MethodType.methodType(boolean.class));
+                defineTmp = lookup
+                        .findVirtual(Lookup.class, "defineHiddenClassWithClassData",
+                                MethodType.methodType(Lookup.class, byte[].class, Object.class, boolean.class,
+                                        classOptionArrayClass))
+                        .asFixedArity().asType(MethodType.methodType(Lookup.class, Lookup.class, byte[].class,
+                                Object.class, boolean.class, Object.class));
+                noOptionsTmp = Array.newInstance(classOptionClass, 0);
+                nestmateOptionsTmp = Array.newInstance(classOptionClass, 1);
+                for (Object option : classOptionClass.getEnumConstants()) {
+                    if ("NESTMATE".equals(((Enum<?>) option).name()))
+                        Array.set(nestmateOptionsTmp, 0, option);
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new SaltaException("Error while accessing the hidden class API", e);
+            }
+        }
+        isHidden = isHiddenTmp;
+        hasFullPrivilegeAccess = hasFullPrivilegeAccessTmp;
+        defineHiddenClassWithClassData = defineTmp;
+        noOptions = noOptionsTmp;
+        nestmateOptions = nestmateOptionsTmp;
+    }
+
+    /**
+     * Determine if hidden classes are supported by the running JVM
+     */
+    static boolean isSupported() {
+        return Runtime.version().feature() >= REQUIRED_JAVA_VERSION;
+    }
+
+    private final CompilerClassLoader loader;
+    private final Lookup anchorLookup;
+
+    HiddenClassDefiner(CompilerClassLoader loader, String anchorInternalName) {
+        if (!isSupported())
+            throw new SaltaException("Hidden classes require Java " + REQUIRED_JAVA_VERSION
+                    + " or later, but running on Java " + Runtime.version()
+                    + ". Disable CoreInjectorConfiguration.useHiddenClasses");
+        this.loader = loader;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_7, ACC_PUBLIC + ACC_FINAL + ACC_SYNTHETIC, anchorInternalName, null,
+                Type.getInternalName(Object.class), null);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC + ACC_STATIC, "lookup",
+                Type.getMethodDescriptor(Type.getType(Lookup.class)), null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(MethodHandles.class), "lookup",
+                Type.getMethodDescriptor(Type.getType(Lookup.class)), false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        try {
+            Class<?> anchor = loader.defineClass(Type.getObjectType(anchorInternalName).getClassName(),
+                    cw.toByteArray());
+            anchorLookup = (Lookup) anchor.getMethod("lookup").invoke(null);
+        } catch (Exception e) {
+            throw new SaltaException("Error while creating anchor class for hidden classes", e);
+        }
+    }
+
+    /**
+     * Return a lookup which can be used to define nestmates of the given class,
+     * or null if that is not possible. The class has to be loaded by the parent
+     * of the {@link CompilerClassLoader}, such that the compiled code resolves
+     * the same classes, and has to be accessible with full privileges.
+     */
+    Lookup tryGetNestmateLookup(Class<?> cls) {
+        try {
+            if (cls.isPrimitive() || cls.isArray() || (boolean) isHidden.invokeExact(cls)
+                    || cls.getClassLoader() != loader.getParent())
+                return null;
+            Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+            return (boolean) hasFullPrivilegeAccess.invokeExact(lookup) ? lookup : null;
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new SaltaException("Error while creating nestmate lookup for " + cls, t);
+        }
+    }
+
+    /**
+     * Define and initialize a hidden class. The field values are passed as
+     * class data. If the nestHostLookup is null, the class is defined in the
+     * package of the anchor class.
+     */
+    Class<?> defineClass(byte[] bytes, Object[] fieldValues, Lookup nestHostLookup) throws Throwable {
+        Lookup hostLookup = nestHostLookup == null ? anchorLookup : nestHostLookup;
+        Object options = nestHostLookup == null ? noOptions : nestmateOptions;
+        Lookup lookup = (Lookup) defineHiddenClassWithClassData.invokeExact(hostLookup, bytes, (Object) fieldValues,
+                true, options);
+        return lookup.lookupClass();
+    }
+}
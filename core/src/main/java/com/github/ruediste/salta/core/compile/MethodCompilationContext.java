@@ -9,6 +9,9 @@ import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -17,7 +20,9 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.commons.GeneratorAdapter;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
 
 import com.github.ruediste.salta.core.SaltaException;
 import com.github.ruediste.salta.standard.util.Accessibility;
@@ -30,14 +35,26 @@ public class MethodCompilationContext {
 
     private final ClassCompilationContext classCtx;
     private final GeneratorAdapter mv;
-    private int access;
-    private String desc;
+    private final MethodNode method;
+    private final CodeSizeEvaluator codeSizeEvaluator;
 
-    public MethodCompilationContext(ClassCompilationContext classCtx, GeneratorAdapter mv, int access, String desc) {
+    /**
+     * Code size of the instructions which have been removed by a
+     * {@link Checkpoint#rollback()}
+     */
+    private int rolledBackCodeSize;
+
+    /**
+     * @param mv
+     *            generator writing to the code size evaluator, which in turn
+     *            writes to the method node
+     */
+    public MethodCompilationContext(ClassCompilationContext classCtx, GeneratorAdapter mv, MethodNode method,
+            CodeSizeEvaluator codeSizeEvaluator) {
         this.classCtx = classCtx;
         this.mv = mv;
-        this.access = access;
-        this.desc = desc;
+        this.method = method;
+        this.codeSizeEvaluator = codeSizeEvaluator;
     }
 
     public GeneratorAdapter getMv() {
@@ -129,6 +146,27 @@ public class MethodCompilationContext {
         return classCtx.getCompiledCodeClassLoader();
     }
 
+    /**
+     * see {@link ClassCompilationContext#isConstructorAccessible(Constructor)}
+     */
+    public boolean isConstructorAccessible(Constructor<?> constructor) {
+        return classCtx.isConstructorAccessible(constructor);
+    }
+
+    /**
+     * see {@link ClassCompilationContext#isMethodAccessible(Method)}
+     */
+    public boolean isMethodAccessible(Method method) {
+        return classCtx.isMethodAccessible(method);
+    }
+
+    /**
+     * see {@link ClassCompilationContext#isFieldAccessible(Field)}
+     */
+    public boolean isFieldAccessible(Field field) {
+        return classCtx.isFieldAccessible(field);
+    }
+
     public ClassCompilationContext getClassCtx() {
         return classCtx;
     }
@@ -137,10 +175,16 @@ public class MethodCompilationContext {
      * see {@link MethodCompilationContext#castToPublic(Class, Class)}
      */
     public Class<?> castToPublic(Class<?> from, Class<?> to) {
-        if (!Accessibility.isClassAccessible(to, getCompiledCodeClassLoader()))
+        if (!classCtx.isClassAccessible(to))
             to = Object.class;
 
-        if (from.equals(to))
+        // values of non-public types are typically represented by a public
+        // super type on the stack, thus a cast might be required even if the
+        // types are equal
+        boolean fromPublic = Accessibility.isClassAccessible(from, getCompiledCodeClassLoader());
+        boolean toPublic = Accessibility.isClassAccessible(to, getCompiledCodeClassLoader());
+
+        if (from.equals(to) && fromPublic)
             return to;
 
         if (from.isPrimitive() && to.isPrimitive()) {
@@ -159,7 +203,7 @@ public class MethodCompilationContext {
                 return to;
             }
         } else {
-            if (!to.isAssignableFrom(from)) {
+            if (!to.isAssignableFrom(from) || !fromPublic && !toPublic) {
                 // downcast
                 mv.checkCast(Type.getType(to));
             }
@@ -177,32 +221,56 @@ public class MethodCompilationContext {
         return cls;
     }
 
-    private int codeSizeOffset;
+    /**
+     * Maximum size of the code generated so far
+     */
+    public int getCodeSize() {
+        return codeSizeEvaluator.getMaxSize() - rolledBackCodeSize;
+    }
 
-    public void addCodeSizeOffset(int offset) {
-        codeSizeOffset += offset;
+    /**
+     * Change the return type of the method. Used if the return type is only
+     * known after the code of the method has been generated. The return
+     * instruction has to be emitted without using
+     * {@link GeneratorAdapter#returnValue()}.
+     */
+    public void setReturnType(Class<?> returnType) {
+        method.desc = Type.getMethodDescriptor(Type.getType(returnType), Type.getArgumentTypes(method.desc));
     }
 
-    public static class CodeSizeHelper {
-        public MethodCompilationContext ctx;
-        private CodeSizeEvaluator cse;
+    /**
+     * Position in the generated code. Allows to determine the size of the code
+     * generated afterwards, and to remove that code again.
+     */
+    public final class Checkpoint {
+        private final AbstractInsnNode lastInsn = method.instructions.getLast();
+        private final int tryCatchBlockCount = method.tryCatchBlocks.size();
+        private final int codeSize = MethodCompilationContext.this.getCodeSize();
+        private final ClassCompilationContext.MemberCount memberCount = classCtx.new MemberCount();
+
+        /**
+         * Size of the code generated since this checkpoint
+         */
+        public int getCodeSize() {
+            return MethodCompilationContext.this.getCodeSize() - codeSize;
+        }
 
-        public int getSize() {
-            return cse.getMaxSize() + ctx.codeSizeOffset;
+        /**
+         * Remove the code generated since this checkpoint, along with the
+         * fields and methods added to the class.
+         */
+        public void rollback() {
+            InsnList instructions = method.instructions;
+            while (instructions.getLast() != lastInsn)
+                instructions.remove(instructions.getLast());
+            method.tryCatchBlocks.subList(tryCatchBlockCount, method.tryCatchBlocks.size()).clear();
+            rolledBackCodeSize += getCodeSize();
+            memberCount.rollback();
         }
     }
 
-    public CodeSizeHelper getCodeSizeHelper() {
-        ClassNode node = new ClassNode();
-        node.name = getClassCtx().getClazz().name;
-        ClassCompilationContext ccc = new ClassCompilationContext(node, true, classCtx.getCompiler());
-        CodeSizeEvaluator cse = new CodeSizeEvaluator(null);
-        MethodCompilationContext mcc = new MethodCompilationContext(ccc,
-                new GeneratorAdapter(cse, access, "method", desc), access, desc);
-        CodeSizeHelper helper = new CodeSizeHelper();
-        helper.ctx = mcc;
-        helper.cse = cse;
-        return helper;
+    public Checkpoint checkpoint() {
+        return new Checkpoint();
     }
 
     private boolean separateSubRecipes;
@@ -10,8 +10,15 @@ import static org.objectweb.asm.Opcodes.RETURN;
 import static org.objectweb.asm.Opcodes.V1_7;
 
 import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.reflect.Constructor;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -19,7 +26,9 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.SimpleRemapper;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.util.ASMifier;
 import org.objectweb.asm.util.CheckClassAdapter;
@@ -27,13 +36,42 @@ import org.objectweb.asm.util.TraceClassVisitor;
 
 import com.github.ruediste.salta.core.CompiledFunction;
 import com.github.ruediste.salta.core.CompiledSupplier;
-import com.github.ruediste.salta.core.CoreInjector;
 import com.github.ruediste.salta.core.SaltaException;
 
+/**
+ * Compiles recipes to bytecode and loads the resulting classes. All methods are
+ * thread safe, multiple recipes can be compiled concurrently.
+ *
+ * <p>
+ * By default, the classes are defined by a {@link CompilerClassLoader} and
+ * live as long as the compiler. If hidden classes are enabled, the classes are
+ * defined as hidden classes instead (see {@link HiddenClassDefiner}). They can
+ * be unloaded as soon as they are not used anymore, and can directly access
+ * the private members of a single nest.
+ * </p>
+ *
+ * <p>
+ * If a {@link CompiledClassCache} is configured, the recipes are still
+ * translated to a class structure, which provides the values of the fields of
+ * the compiled class. The cache is looked up by a fingerprint of this
+ * structure, thus a cached class is only used if it has been compiled from an
+ * equivalent recipe. Classes found in the cache are defined without computing
+ * frames and writing the bytecode. If a cached class cannot be defined, it is
+ * compiled instead.
+ * </p>
+ */
 public class RecipeCompiler {
 	private static final AtomicInteger instanceCounter = new AtomicInteger();
 
 	public static class CompilerClassLoader extends ClassLoader {
+		static {
+			registerAsParallelCapable();
+		}
+
+		private final ConcurrentHashMap<String, Object[]> pendingFieldValues = new ConcurrentHashMap<>();
+
+		private final Set<String> claimedNames = ConcurrentHashMap.newKeySet();
+
 		public CompilerClassLoader(ClassLoader parent) {
 			super(parent);
 		}
@@ -42,6 +80,39 @@ public class RecipeCompiler {
 			return defineClass(name, bb, 0, bb.length);
 		}
 
+		/**
+		 * Define and initialize a class. The static initializer retrieves the
+		 * field values using {@link #takeFieldValues(String)}.
+		 */
+		public Class<?> defineClass(String name, byte[] bb, Object[] fieldValues) throws ClassNotFoundException {
+			pendingFieldValues.put(name, fieldValues);
+			try {
+				Class<?> cls = defineClass(name, bb);
+				Class.forName(name, true, this);
+				return cls;
+			} finally {
+				pendingFieldValues.remove(name);
+			}
+		}
+
+		/**
+		 * Called by the static initializer of compiled classes to retrieve the
+		 * values of their constant fields.
+		 */
+		public Object[] takeFieldValues(String name) {
+			return pendingFieldValues.remove(name);
+		}
+
+		/**
+		 * Reserve a class name which is not generated by the compiler, such as
+		 * the name of a cached class.
+		 * 
+		 * @return false if the name has been reserved before, in which case
+		 *         another name has to be used
+		 */
+		boolean claimName(String name) {
+			return claimedNames.add(name);
+		}
 	}
 
 	private final int instanceNr;
@@ -51,16 +122,49 @@ public class RecipeCompiler {
 	}
 
 	public RecipeCompiler(ClassLoader generatedCodeParentClassLoader) {
+		this(generatedCodeParentClassLoader, false);
+	}
+
+	public RecipeCompiler(ClassLoader generatedCodeParentClassLoader, boolean useHiddenClasses) {
+		this(generatedCodeParentClassLoader, useHiddenClasses, null);
+	}
+
+	/**
+	 * @param cache
+	 *            if not null, the bytecode of the compiled classes is looked
+	 *            up in and stored to this cache
+	 */
+	public RecipeCompiler(ClassLoader generatedCodeParentClassLoader, boolean useHiddenClasses,
+			CompiledClassCache cache) {
+		this.cache = cache;
 		instanceNr = instanceCounter.incrementAndGet();
 		loader = new CompilerClassLoader(generatedCodeParentClassLoader);
+		hiddenClassDefiner = useHiddenClasses
+				? new HiddenClassDefiner(loader, "salta/CompiledRecipeAnchor" + instanceNr)
+				: null;
 	}
 
 	private final CompilerClassLoader loader;
+	private final HiddenClassDefiner hiddenClassDefiner;
+	private final CompiledClassCache cache;
 	private AtomicInteger classNumber = new AtomicInteger();
+	private volatile int sizeThreshold = SupplierRecipe.DEFAULT_SIZE_THRESHOLD;
+
+	/**
+	 * Size threshold of the {@link SupplierRecipe}s which do not specify their
+	 * own threshold. If the code of a recipe is bigger, its sub recipes are
+	 * compiled to separate methods.
+	 */
+	public int getSizeThreshold() {
+		return sizeThreshold;
+	}
+
+	public void setSizeThreshold(int sizeThreshold) {
+		this.sizeThreshold = sizeThreshold;
+	}
 
 	/**
-	 * Compile a recipe. May be called from multiple threads. Calling thread must
-	 * holde the {@link CoreInjector#recipeLock}
+	 * Compile a recipe. May be called from multiple threads concurrently.
 	 */
 	public CompiledSupplier compileSupplier(SupplierRecipe recipe) {
 		ClassCompilationContext ccc = createClass(CompiledSupplier.class);
@@ -84,8 +188,47 @@ public class RecipeCompiler {
 	}
 
 	/**
-	 * Compile a recipe which takes a parameter. Calling thread must holde the
-	 * {@link CoreInjector#recipeLock}
+	 * Create a supplier for a recipe which is typically evaluated only once,
+	 * such as the recipe creating a singleton. If the recipe can be interpreted
+	 * (see {@link SupplierRecipe#createInterpreter()}), the first invocation
+	 * uses the interpreter and does not define any class. The recipe is
+	 * compiled when the supplier is invoked again.
+	 */
+	public CompiledSupplier compileSupplierLazily(SupplierRecipe recipe) {
+		CompiledSupplier interpreter = recipe.createInterpreter();
+		if (interpreter == null)
+			return compileSupplier(recipe);
+		AtomicBoolean interpreted = new AtomicBoolean();
+		// not using a monitor, to avoid pinning virtual threads during compilation
+		ReentrantLock lock = new ReentrantLock();
+		return new CompiledSupplier() {
+			private volatile CompiledSupplier compiled;
+
+			@Override
+			public Object get() throws Throwable {
+				CompiledSupplier tmp = compiled;
+				if (tmp == null) {
+					if (interpreted.compareAndSet(false, true))
+						return interpreter.get();
+					lock.lock();
+					try {
+						tmp = compiled;
+						if (tmp == null) {
+							tmp = compileSupplier(recipe);
+							compiled = tmp;
+						}
+					} finally {
+						lock.unlock();
+					}
+				}
+				return tmp.get();
+			}
+		};
+	}
+
+	/**
+	 * Compile a recipe which takes a parameter. May be called from multiple
+	 * threads concurrently.
 	 */
 	public CompiledFunction compileFunction(FunctionRecipe recipe) {
 		ClassCompilationContext ccc = createClass(CompiledFunction.class);
@@ -108,26 +251,147 @@ public class RecipeCompiler {
 		return (CompiledFunction) instantiate(cls);
 	}
 
+	/**
+	 * Load the class compiled in the given context.
+	 */
 	public Class<?> loadClass(ClassCompilationContext ctx) {
-		// generate bytecode
+		ctx.addStaticInitializer(hiddenClassDefiner != null);
+
+		// Nestmates have to be placed in the package of their nest host
+		String packagePrefix = "salta/";
+		Class<?> nestHost = ctx.getNestHost();
+		if (nestHost != null) {
+			String hostName = Type.getInternalName(nestHost);
+			packagePrefix = hostName.substring(0, hostName.lastIndexOf('/') + 1);
+		}
+
+		if (cache == null) {
+			String name = packagePrefix + simpleName(ctx.getClazz().name);
+			return defineClass(ctx, name, generateBytecode(ctx, name));
+		}
+
+		// The cached classes are named after the fingerprint of their
+		// structure, which does not depend on the number of classes compiled
+		// before. Thus equal recipes result in equal bytecode, and each class
+		// can be defined under its canonical name without renaming.
+		String fingerprint = fingerprint(ctx, packagePrefix + "CompiledRecipe");
+		String canonicalName = packagePrefix + "CompiledRecipe_" + fingerprint;
+
+		byte[] cached = cache.get(fingerprint);
+		if (cached != null) {
+			Class<?> cls = tryDefineCachedClass(ctx, canonicalName, packagePrefix, cached);
+			if (cls != null)
+				return cls;
+		}
+		byte[] bb = generateBytecode(ctx, canonicalName);
+		cache.put(fingerprint, bb);
+		// the chosen name might be in use if defining the cached class failed
+		String name = chooseName(canonicalName, packagePrefix);
+		return defineClass(ctx, name, rename(bb, canonicalName, name));
+	}
+
+	/**
+	 * Define a class found in the cache. The class has to carry the canonical
+	 * name derived from the fingerprint it has been found under. Otherwise,
+	 * or if the class cannot be defined, null is returned, and the class has
+	 * to be compiled.
+	 */
+	private Class<?> tryDefineCachedClass(ClassCompilationContext ctx, String canonicalName, String packagePrefix,
+			byte[] cached) {
+		try {
+			if (!canonicalName.equals(new ClassReader(cached).getClassName()))
+				return null;
+			String name = chooseName(canonicalName, packagePrefix);
+			return defineClassImpl(ctx, name, rename(cached, canonicalName, name));
+		} catch (LinkageError e) {
+			// the cache entry is unusable
+			return null;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			// the cache entry is unusable
+			return null;
+		}
+	}
+
+	/**
+	 * Choose the name to define a class with the given canonical name under.
+	 * Hidden classes keep the canonical name, since the JVM makes their names
+	 * unique. Otherwise the canonical name is used if it has not been used by
+	 * the {@link CompilerClassLoader} before, which saves the renaming. If it
+	 * has, a new name is generated.
+	 */
+	private String chooseName(String canonicalName, String packagePrefix) {
+		if (hiddenClassDefiner != null || loader.claimName(canonicalName))
+			return canonicalName;
+		return packagePrefix + simpleName(newClassName());
+	}
+
+	private String simpleName(String internalName) {
+		return internalName.substring(internalName.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Generate a new, unique name in the salta package
+	 */
+	private String newClassName() {
+		return "salta/CompiledCreationRecipe" + instanceNr + "_" + classNumber.incrementAndGet();
+	}
+
+	/**
+	 * Generate the bytecode of a class, renaming it to the given name
+	 */
+	private byte[] generateBytecode(ClassCompilationContext ctx, String name) {
 		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-		ctx.getClazz().accept(cw);
+		ctx.getClazz().accept(renamingVisitor(cw, ctx.getClazz().name, name));
+		return cw.toByteArray();
+	}
 
-		// load class
-		Class<?> cls;
-		byte[] bb = cw.toByteArray();
-		String className = Type.getObjectType(ctx.getClazz().name).getClassName();
+	private ClassVisitor renamingVisitor(ClassVisitor cv, String from, String to) {
+		if (from.equals(to))
+			return cv;
+		return new ClassRemapper(cv, new SimpleRemapper(from, to));
+	}
 
-		// try {
-		// Files.write(bb, new File("target/compiledRecipes/" + ctx.clazz.name
-		// + ".class"));
-		// } catch (IOException e2) {
-		// throw new SaltaException("Error while writing generated class", e2);
-		// }
+	/**
+	 * Rename an already generated class. Hidden classes are always defined
+	 * using a generated name, thus no renaming is required.
+	 */
+	private byte[] rename(byte[] bb, String from, String to) {
+		if (hiddenClassDefiner != null || from.equals(to))
+			return bb;
+		ClassReader reader = new ClassReader(bb);
+		ClassWriter cw = new ClassWriter(0);
+		reader.accept(renamingVisitor(cw, from, to), 0);
+		return cw.toByteArray();
+	}
 
+	/**
+	 * Calculate the fingerprint of a class, without computing frames. The
+	 * class is renamed to the canonical name first.
+	 */
+	private String fingerprint(ClassCompilationContext ctx, String canonicalName) {
+		ClassWriter cw = new ClassWriter(0);
+		ctx.getClazz().accept(renamingVisitor(cw, ctx.getClazz().name, canonicalName));
+		return sha256(cw.toByteArray());
+	}
+
+	private String sha256(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new SaltaException("Error while calculating fingerprint of compiled recipe", e);
+		}
+	}
+
+	private Class<?> defineClass(ClassCompilationContext ctx, String name, byte[] bb) {
+		Class<?> cls;
 		try {
-			cls = getLoader().defineClass(className, bb);
-			ctx.initFields(cls);
+			cls = defineClassImpl(ctx, name, bb);
 		} catch (Throwable e) {
 			System.out.println("Error while loading compiled recipe class");
 			ClassReader cr = new ClassReader(bb);
@@ -136,8 +400,16 @@ public class RecipeCompiler {
 
 			throw new SaltaException("Error while loading compiled recipe", e);
 		}
+		return cls;
+	}
 
-		// return result
+	private Class<?> defineClassImpl(ClassCompilationContext ctx, String name, byte[] bb) throws Throwable {
+		Class<?> cls;
+		if (hiddenClassDefiner == null)
+			cls = getLoader().defineClass(Type.getObjectType(name).getClassName(), bb, ctx.getConstantFieldValues());
+		else
+			cls = hiddenClassDefiner.defineClass(bb, ctx.getConstantFieldValues(), ctx.getNestHostLookup());
+		ctx.initNonConstantFields(cls);
 		return cls;
 	}
 
@@ -161,7 +433,7 @@ public class RecipeCompiler {
 	public ClassCompilationContext createClass(Class<?> implementedInterface) {
 		// setup clazz
 		ClassNode clazz = new ClassNode();
-		clazz.name = "salta/CompiledCreationRecipe" + instanceNr + "_" + classNumber.incrementAndGet();
+		clazz.name = newClassName();
 		clazz.access = ACC_FINAL & ACC_PUBLIC & ACC_SYNTHETIC;
 		clazz.version = V1_7;
 		clazz.superName = Type.getInternalName(Object.class);
@@ -171,7 +443,7 @@ public class RecipeCompiler {
 		// generate constructor
 		generateConstructor(clazz);
 
-		return new ClassCompilationContext(clazz, false, this);
+		return new ClassCompilationContext(clazz, this);
 	}
 
 	private void generateConstructor(ClassVisitor cw) {
@@ -193,4 +465,32 @@ public class RecipeCompiler {
 		return loader;
 	}
 
+	public boolean isUsingHiddenClasses() {
+		return hiddenClassDefiner != null;
+	}
+
+	/**
+	 * Determine if compiled classes can reference each other by name. This is
+	 * not the case for hidden classes, and if cached classes are used, since
+	 * they are renamed when loaded.
+	 */
+	public boolean canReferenceCompiledClassesByName() {
+		return hiddenClassDefiner == null && cache == null;
+	}
+
+	public CompiledClassCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Return a lookup which can be used to define the compiled code as nestmate
+	 * of the given class, or null if this is not possible. Always null if
+	 * hidden classes are not used.
+	 */
+	public Lookup tryGetNestmateLookup(Class<?> cls) {
+		if (hiddenClassDefiner == null)
+			return null;
+		return hiddenClassDefiner.tryGetNestmateLookup(cls);
+	}
+
 }
@@ -0,0 +1,43 @@
+package com.github.ruediste.salta.core.compile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.github.ruediste.salta.core.SaltaException;
+
+/**
+ * Read only {@link CompiledClassCache} loading the classes from resources
+ * below {@link #RESOURCE_PREFIX}. These resources are created ahead of time,
+ * typically by the salta maven plugin, together with the classes of the
+ * application. Classes whose recipe changed since are not found and compiled
+ * at runtime.
+ */
+public class ResourceCompiledClassCache implements CompiledClassCache {
+
+    /**
+     * Location of the compiled classes within the class path
+     */
+    public static final String RESOURCE_PREFIX = "META-INF/salta/recipes/";
+
+    private final ClassLoader classLoader;
+
+    public ResourceCompiledClassCache(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public byte[] get(String fingerprint) {
+        try (InputStream in = classLoader.getResourceAsStream(RESOURCE_PREFIX + fingerprint + ".class")) {
+            if (in == null)
+                return null;
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new SaltaException("Error while reading compiled class " + fingerprint, e);
+        }
+    }
+
+    @Override
+    public void put(String fingerprint, byte[] bytecode) {
+        // read only
+    }
+}
@@ -3,11 +3,20 @@ package com.github.ruediste.salta.core.compile;
 import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
 import static org.objectweb.asm.Opcodes.ACC_STATIC;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
 
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 
-import com.github.ruediste.salta.core.compile.MethodCompilationContext.CodeSizeHelper;
+import com.github.ruediste.salta.core.CompiledSupplier;
+import com.github.ruediste.salta.core.CoreInjectorConfiguration;
+import com.github.ruediste.salta.core.SaltaException;
 
 /**
  * Recipe for compiling a supplier of a value
@@ -22,15 +31,71 @@ public abstract class SupplierRecipe {
      */
     public static int DEFAULT_SIZE_THRESHOLD = 7000;
 
+    /**
+     * Size threshold keeping the generated methods below the bytecode size
+     * up to which HotSpot inlines frequently executed methods
+     * ({@code -XX:FreqInlineSize}, 325 bytes by default). Recipes bigger than
+     * this are split into methods which can be inlined into their callers,
+     * at the cost of generating more classes.
+     */
+    public static final int INLINING_SIZE_THRESHOLD = 325;
+
+    /**
+     * Size threshold of this recipe, or -1 to use the
+     * {@link RecipeCompiler#getSizeThreshold() threshold of the compiler}
+     */
     private final int sizeThreshold;
-    private int codeSize = -1;
-    private boolean separateSubRecipes;
-    private Class<?> returnType;
 
+    /**
+     * Result of the code size evaluation. Immutable, such that the recipe can
+     * be compiled by multiple threads concurrently.
+     */
+    private static final class SizeEvaluation {
+        final int sizeThreshold;
+        final int codeSize;
+        final boolean separateSubRecipes;
+
+        SizeEvaluation(int sizeThreshold, int codeSize, boolean separateSubRecipes) {
+            this.sizeThreshold = sizeThreshold;
+            this.codeSize = codeSize;
+            this.separateSubRecipes = separateSubRecipes;
+        }
+    }
+
+    private volatile SizeEvaluation sizeEvaluation;
+
+    /**
+     * Class containing this recipe as static method, created when the recipe is
+     * first compiled as separated sub recipe. Reused as long as the same
+     * compiler is used.
+     */
+    private static final class SeparatedRecipe {
+        final RecipeCompiler compiler;
+        final Class<?> cls;
+        final String methodName;
+        final Class<?> returnType;
+
+        SeparatedRecipe(RecipeCompiler compiler, Class<?> cls, String methodName, Class<?> returnType) {
+            this.compiler = compiler;
+            this.cls = cls;
+            this.methodName = methodName;
+            this.returnType = returnType;
+        }
+    }
+
+    private volatile SeparatedRecipe separatedRecipe;
+
+    /**
+     * Create a recipe using the size threshold of the compiler
+     */
     public SupplierRecipe() {
-        this(DEFAULT_SIZE_THRESHOLD);
+        this(-1);
     }
 
+    /**
+     * Create a recipe using the given size threshold, regardless of the
+     * threshold of the compiler
+     */
     public SupplierRecipe(int sizeThreshold) {
         this.sizeThreshold = sizeThreshold;
     }
@@ -48,51 +113,108 @@ public abstract class SupplierRecipe {
      * 
      */
     public final Class<?> compile(MethodCompilationContext ctx) {
-        if (codeSize == -1) {
-            // evaluate size first
-            CodeSizeHelper helper = ctx.getCodeSizeHelper();
-
-            returnType = compileImpl(helper.ctx.getMv(), helper.ctx);
-            codeSize = helper.getSize();
-
-            if (helper.getSize() > sizeThreshold) {
-                // code is too big, we have to separate all sub recipes
-                separateSubRecipes = true;
-                CodeSizeHelper innerHelper = ctx.getCodeSizeHelper();
-                returnType = innerHelper.ctx.withSeparateSubRecipes(true, mv -> compileImpl(mv, innerHelper.ctx));
-                codeSize = innerHelper.getSize();
-
-                // do a cast to public, such that we can generate a method
-                // afterwards. This modifies the code size again, therefore the
-                // size was saved before
-                returnType = innerHelper.ctx.castToPublic(returnType, returnType);
-            }
+        if (ctx.isSeparateSubRecipes())
+            return compileSeparated(ctx);
+        else
+            return compileInline(ctx);
+    }
 
-        }
+    /**
+     * Emit the code of this recipe into the current method. When compiled for
+     * the first time, the recipe is emitted with the sub recipes inlined. If
+     * the resulting code is too big, it is rolled back and emitted again with
+     * all sub recipes separated. The sizes of the sub recipes are memorized by
+     * the sub recipes themselves, thus the size is computed bottom-up without
+     * a separate evaluation pass.
+     */
+    private Class<?> compileInline(MethodCompilationContext ctx) {
+        int sizeThreshold = this.sizeThreshold < 0 ? ctx.getClassCtx().getCompiler().getSizeThreshold()
+                : this.sizeThreshold;
+        SizeEvaluation evaluation = sizeEvaluation;
+        if (evaluation != null && evaluation.sizeThreshold == sizeThreshold)
+            return ctx.withSeparateSubRecipes(evaluation.separateSubRecipes, mv -> compileImpl(mv, ctx));
 
-        if (ctx.getClassCtx().isCodeSizeEvaluation()) {
-            ctx.addCodeSizeOffset(codeSize);
+        // if multiple threads race, the evaluation is performed more than
+        // once, but all results are equal
+        MethodCompilationContext.Checkpoint checkpoint = ctx.checkpoint();
+        Class<?> returnType = ctx.withSeparateSubRecipes(false, mv -> compileImpl(mv, ctx));
+        if (checkpoint.getCodeSize() <= sizeThreshold) {
+            sizeEvaluation = new SizeEvaluation(sizeThreshold, checkpoint.getCodeSize(), false);
             return returnType;
         }
 
-        if (ctx.isSeparateSubRecipes()) {
-            ClassCompilationContext ccc = ctx.getClassCtx().getCompiler().createClass(null);
+        // code is too big, we have to separate all sub recipes
+        checkpoint.rollback();
+        checkpoint = ctx.checkpoint();
+        returnType = ctx.withSeparateSubRecipes(true, mv -> compileImpl(mv, ctx));
+        sizeEvaluation = new SizeEvaluation(sizeThreshold, checkpoint.getCodeSize(), true);
+        return returnType;
+    }
 
-            String desc = Type.getMethodDescriptor(Type.getType(returnType));
-            String methodName = ccc.addMethod(ACC_PUBLIC + ACC_STATIC, desc, null, new MethodRecipe() {
+    /**
+     * Emit an invocation of this recipe, compiled to a static method of a
+     * separate class
+     */
+    private Class<?> compileSeparated(MethodCompilationContext ctx) {
+        RecipeCompiler compiler = ctx.getClassCtx().getCompiler();
+        SeparatedRecipe separated = separatedRecipe;
+        if (separated == null || separated.compiler != compiler) {
+            // if multiple threads race, more than one class is created, but
+            // all of them are equivalent
+            separated = createSeparatedRecipe(compiler);
+            separatedRecipe = separated;
+        }
 
-                @Override
-                protected void compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
-                    SupplierRecipe.this.compileImpl(mv, ctx);
-                    mv.returnValue();
-                }
-            });
-            ctx.getClassCtx().getCompiler().loadClass(ccc);
+        if (!compiler.canReferenceCompiledClassesByName())
+            invokeViaMethodHandle(ctx, separated.cls, separated.methodName, separated.returnType);
+        else
+            ctx.getMv().visitMethodInsn(INVOKESTATIC, Type.getInternalName(separated.cls), separated.methodName,
+                    Type.getMethodDescriptor(Type.getType(separated.returnType)), false);
+        return separated.returnType;
+    }
 
-            ctx.getMv().visitMethodInsn(INVOKESTATIC, ccc.getInternalClassName(), methodName, desc, false);
-            return returnType;
-        } else
-            return ctx.withSeparateSubRecipes(separateSubRecipes, mv -> compileImpl(mv, ctx));
+    private SeparatedRecipe createSeparatedRecipe(RecipeCompiler compiler) {
+        ClassCompilationContext ccc = compiler.createClass(null);
+        Class<?>[] returnType = new Class<?>[1];
+        String desc = Type.getMethodDescriptor(Type.getType(Object.class));
+        String methodName = ccc.addMethod(ACC_PUBLIC + ACC_STATIC, desc, null, new MethodRecipe() {
+
+            @Override
+            protected void compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                Class<?> type = compileInline(ctx);
+                // the return type of the method has to be accessible
+                // from the calling class
+                type = ctx.castToPublic(type, ctx.publicSuperType(type, ctx.getCompiledCodeClassLoader()));
+                ctx.setReturnType(type);
+                mv.visitInsn(Type.getType(type).getOpcode(IRETURN));
+                returnType[0] = type;
+            }
+        });
+        return new SeparatedRecipe(compiler, compiler.loadClass(ccc), methodName, returnType[0]);
+    }
+
+    /**
+     * Hidden and cached classes cannot be referenced by name. Invoke the separated method
+     * through a method handle instead.
+     */
+    private void invokeViaMethodHandle(MethodCompilationContext ctx, Class<?> cls, String methodName,
+            Class<?> returnType) {
+        MethodHandle handle;
+        try {
+            Method method = cls.getMethod(methodName);
+            method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method);
+        } catch (Exception e) {
+            throw new SaltaException("Error while creating handle of separated recipe", e);
+        }
+        Class<?> handleReturnType = returnType.isPrimitive() ? returnType : Object.class;
+        handle = handle.asType(MethodType.methodType(handleReturnType));
+
+        ctx.addFieldAndLoad(MethodHandle.class, handle);
+        ctx.getMv().invokeVirtual(Type.getType(MethodHandle.class), new org.objectweb.asm.commons.Method(
+                "invokeExact", Type.getMethodDescriptor(Type.getType(handleReturnType))));
+        if (!returnType.isPrimitive() && ctx.getClassCtx().isClassAccessible(returnType))
+            ctx.getMv().checkCast(Type.getType(returnType));
     }
 
     /**
@@ -104,4 +226,42 @@ public abstract class SupplierRecipe {
      */
     protected abstract Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx);
 
+    /**
+     * Create a supplier evaluating this recipe without generating any
+     * bytecode, using reflection instead. Used to evaluate the recipes of
+     * rarely requested keys, see
+     * {@link CoreInjectorConfiguration#compilationThreshold}. The result has
+     * to be thread safe.
+     * 
+     * @return the interpreter, or null if this recipe cannot be interpreted,
+     *         which is the default
+     */
+    public CompiledSupplier createInterpreter() {
+        return null;
+    }
+
+    /**
+     * Create the interpreters of the given recipes. Returns null if any of the
+     * recipes cannot be interpreted.
+     */
+    public static CompiledSupplier[] createInterpreters(List<? extends SupplierRecipe> recipes) {
+        CompiledSupplier[] result = new CompiledSupplier[recipes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = recipes.get(i).createInterpreter();
+            if (result[i] == null)
+                return null;
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate the given interpreters
+     */
+    public static Object[] interpret(CompiledSupplier[] interpreters) throws Throwable {
+        Object[] result = new Object[interpreters.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = interpreters[i].get();
+        return result;
+    }
+
 }
@@ -6,6 +6,8 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 
+import com.github.ruediste.salta.core.CompiledSupplier;
+
 /**
  * Implementation of {@link SupplierRecipe} using a {@link Supplier} to generate
  * the result
@@ -26,4 +28,8 @@ public class SupplierRecipeImpl extends SupplierRecipe {
         return Object.class;
     }
 
+    @Override
+    public CompiledSupplier createInterpreter() {
+        return supplier::get;
+    }
 }
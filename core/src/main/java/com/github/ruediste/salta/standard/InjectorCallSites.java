@@ -0,0 +1,261 @@
+package com.github.ruediste.salta.standard;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.github.ruediste.salta.core.CompiledSupplier;
+import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.core.SaltaException;
+
+/**
+ * Entry point for generated framework code instantiating keys through
+ * invokedynamic. Each call site is bound to the compiled recipe of its key,
+ * thus the call site is monomorphic and the recipe can be inlined into the
+ * caller.
+ *
+ * <p>
+ * The call sites are grouped by a name, which is passed as static argument to
+ * the {@link #bootstrap(Lookup, String, MethodType, String, Class) bootstrap
+ * method} along with the requested class. {@link #link(String, StandardInjector)}
+ * links all call sites of a name to an injector. If the injector changes, the
+ * existing call sites are relinked. Call sites with no linked injector throw
+ * a {@link SaltaException}. The call sites are only weakly referenced, while
+ * the injector is referenced until the name is unlinked by linking null.
+ * </p>
+ *
+ * <p>
+ * To emit a call site with ASM:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * mv.visitInvokeDynamicInsn("getInstance", "()Lcom/foo/Handler;", InjectorCallSites.BOOTSTRAP, "myApp",
+ * 		Type.getType(Handler.class));
+ * </code>
+ * </pre>
+ */
+public final class InjectorCallSites {
+
+	/**
+	 * Handle of the {@link #bootstrap(Lookup, String, MethodType, String, Class)
+	 * bootstrap method}, for use with ASM
+	 */
+	public static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+			Type.getInternalName(InjectorCallSites.class), "bootstrap",
+			MethodType.methodType(CallSite.class, Lookup.class, String.class, MethodType.class, String.class,
+					Class.class).toMethodDescriptorString(),
+			false);
+
+	private static final MethodHandle GET;
+	private static final MethodHandle WRAP_EXCEPTION;
+	private static final MethodHandle FAIL;
+	static {
+		try {
+			Lookup lookup = MethodHandles.lookup();
+			GET = lookup.findVirtual(CompiledSupplier.class, "get", MethodType.methodType(Object.class));
+			WRAP_EXCEPTION = lookup.findStatic(InjectorCallSites.class, "wrapException",
+					MethodType.methodType(Object.class, CoreDependencyKey.class, Throwable.class));
+			FAIL = lookup.findStatic(InjectorCallSites.class, "fail",
+					MethodType.methodType(Object.class, String.class, Throwable.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Call site requesting a key. Referenced strongly by the class containing
+	 * it, but only weakly by the {@link Linkage}, such that the call site and
+	 * the instances its target refers to can be collected together with the
+	 * class.
+	 */
+	private static class Site extends MutableCallSite {
+		final CoreDependencyKey<?> key;
+
+		Site(CoreDependencyKey<?> key, MethodType type) {
+			super(type);
+			this.key = key;
+		}
+	}
+
+	private static class Linkage {
+		StandardInjector injector;
+
+		/**
+		 * Incremented whenever the injector is changed. Targets created for an
+		 * older generation are not installed.
+		 */
+		int generation;
+		final List<WeakReference<Site>> sites = new ArrayList<>();
+
+		/**
+		 * Return the sites which have not been collected yet, removing the
+		 * collected ones
+		 */
+		List<Site> liveSites() {
+			List<Site> result = new ArrayList<>();
+			for (Iterator<WeakReference<Site>> it = sites.iterator(); it.hasNext();) {
+				Site site = it.next().get();
+				if (site == null)
+					it.remove();
+				else
+					result.add(site);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Linkages by name. Guarded by the {@link #lock}. The targets of the call
+	 * sites are resolved without holding the lock, since resolving a key might
+	 * instantiate singletons and thus block. Only the installation of the
+	 * targets happens while holding the lock.
+	 */
+	private static final Map<String, Linkage> linkages = new HashMap<>();
+	private static final ReentrantLock lock = new ReentrantLock();
+
+	private InjectorCallSites() {
+	}
+
+	/**
+	 * Bootstrap method of the call sites. The type of the call site has to be
+	 * {@code ()T}, where T is a reference type the instances can be cast to.
+	 *
+	 * @param name
+	 *            name of the group of call sites, see
+	 *            {@link #link(String, StandardInjector)}
+	 * @param requestedClass
+	 *            class of the instances to create
+	 */
+	public static CallSite bootstrap(Lookup lookup, String methodName, MethodType type, String name,
+			Class<?> requestedClass) {
+		if (type.parameterCount() != 0 || type.returnType().isPrimitive())
+			throw new SaltaException("Call site type has to be ()T with a reference type T, got " + type);
+		Site site = new Site(DependencyKey.of(requestedClass), type);
+		while (true) {
+			StandardInjector injector;
+			int generation;
+			lock.lock();
+			try {
+				Linkage linkage = linkages.computeIfAbsent(name, n -> new Linkage());
+				injector = linkage.injector;
+				generation = linkage.generation;
+			} finally {
+				lock.unlock();
+			}
+
+			MethodHandle target = createTarget(name, injector, site);
+
+			lock.lock();
+			try {
+				Linkage linkage = linkages.computeIfAbsent(name, n -> new Linkage());
+				if (linkage.generation == generation) {
+					site.setTarget(target);
+					linkage.sites.add(new WeakReference<>(site));
+					return site;
+				}
+				// relinked in the meantime, resolve again
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Link the call sites of the given name to the injector. Existing call
+	 * sites are relinked, which causes the code containing them to be
+	 * recompiled. If the injector is null, the call sites are unlinked and the
+	 * injector is released.
+	 */
+	public static void link(String name, StandardInjector injector) {
+		List<Site> sites;
+		int generation;
+		lock.lock();
+		try {
+			Linkage linkage = linkages.computeIfAbsent(name, n -> new Linkage());
+			linkage.injector = injector;
+			generation = ++linkage.generation;
+			sites = linkage.liveSites();
+		} finally {
+			lock.unlock();
+		}
+
+		List<MethodHandle> targets = new ArrayList<>();
+		for (Site site : sites)
+			targets.add(createTarget(name, injector, site));
+
+		lock.lock();
+		try {
+			Linkage linkage = linkages.get(name);
+			if (linkage == null || linkage.generation != generation)
+				// relinked in the meantime
+				return;
+			for (int i = 0; i < sites.size(); i++)
+				sites.get(i).setTarget(targets.get(i));
+			MutableCallSite.syncAll(sites.toArray(new MutableCallSite[sites.size()]));
+			if (injector == null && linkage.sites.isEmpty())
+				linkages.remove(name);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Return the injector the call sites of the given name are linked to, or
+	 * null if there is none
+	 */
+	public static StandardInjector getLinkedInjector(String name) {
+		lock.lock();
+		try {
+			Linkage linkage = linkages.get(name);
+			return linkage == null ? null : linkage.injector;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static MethodHandle createTarget(String name, StandardInjector injector, Site site) {
+		MethodType type = site.type();
+		if (injector == null)
+			return failingTarget(type, "No injector linked to the call sites named " + name, null);
+		CompiledSupplier supplier;
+		try {
+			supplier = injector.getInstanceHandle(site.key).getSupplier();
+		} catch (SaltaException e) {
+			return failingTarget(type, "Error while linking call site for " + site.key, e);
+		}
+		MethodHandle target = GET.bindTo(supplier);
+		target = MethodHandles.catchException(target, Throwable.class, WRAP_EXCEPTION.bindTo(site.key));
+		return target.asType(type);
+	}
+
+	private static MethodHandle failingTarget(MethodType type, String message, Throwable cause) {
+		return MethodHandles.insertArguments(FAIL, 0, message, cause).asType(type);
+	}
+
+	@SuppressWarnings("unused")
+	private static Object wrapException(CoreDependencyKey<?> key, Throwable t) {
+		if (t instanceof SaltaException)
+			throw (SaltaException) t;
+		throw new SaltaException("Error while creating instance for " + key, t);
+	}
+
+	@SuppressWarnings("unused")
+	private static Object fail(String message, Throwable cause) {
+		throw new SaltaException(message, cause);
+	}
+}
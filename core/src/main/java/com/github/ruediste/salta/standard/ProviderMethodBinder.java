@@ -7,6 +7,8 @@ import java.util.ArrayList;
 
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledFunction;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.RecipeCreationContext;
 import com.github.ruediste.salta.core.Scope;
@@ -73,6 +75,14 @@ public abstract class ProviderMethodBinder {
                                 ctx.addFieldAndLoad(Object.class, instance);
                                 return methodRecipe.compile(Object.class, ctx);
                             }
+
+                            @Override
+                            public CompiledSupplier createInterpreter() {
+                                CompiledFunction method = methodRecipe.createInterpreter();
+                                if (method == null)
+                                    return null;
+                                return () -> method.get(instance);
+                            }
                         };
                     }
 
@@ -43,7 +43,10 @@ public class ScopeImpl implements Scope {
 
     @Override
     public SupplierRecipe createRecipe(RecipeCreationContext ctx, Binding binding, CoreDependencyKey<?> requestedKey) {
-        CompiledSupplier compilerInnerRecipe = ctx.getCompiler().compileSupplier(binding.getOrCreateRecipe(ctx));
+        // many scoped bindings are only instantiated once, only compile the
+        // recipe if it is evaluated multiple times
+        CompiledSupplier compilerInnerRecipe = ctx.getCompiler()
+                .compileSupplierLazily(binding.getOrCreateRecipe(ctx));
 
         Supplier<Object> scoped = handler.scope(compilerInnerRecipe::getNoThrow, binding, requestedKey);
         return new SupplierRecipe() {
@@ -54,6 +57,11 @@ public class ScopeImpl implements Scope {
                 mv.invokeInterface(Type.getType(Supplier.class), Method.getMethod("Object get()"));
                 return Object.class;
             }
+
+            @Override
+            public CompiledSupplier createInterpreter() {
+                return scoped::get;
+            }
         };
     }
 }
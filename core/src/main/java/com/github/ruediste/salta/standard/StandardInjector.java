@@ -5,23 +5,46 @@ import static java.util.stream.Collectors.toList;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedElement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.CoreInjector;
+import com.github.ruediste.salta.core.CoreInjectorConfiguration;
+import com.github.ruediste.salta.core.InstanceHandle;
+import com.github.ruediste.salta.core.RecipeCreationContext;
 import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.core.Scope;
+import com.github.ruediste.salta.core.StaticBinding;
 import com.github.ruediste.salta.standard.config.MembersInjectionToken;
+import com.github.ruediste.salta.standard.config.SingletonDependencyCollector;
+import com.github.ruediste.salta.standard.config.SingletonInstantiationRecorder;
+import com.github.ruediste.salta.standard.config.SingletonScope;
 import com.github.ruediste.salta.standard.config.StandardInjectorConfiguration;
 import com.google.common.base.Preconditions;
 import com.google.common.reflect.TypeToken;
 
-import net.bytebuddy.agent.ByteBuddyAgent;
-
 public class StandardInjector {
 
 	private final static class ClassDependencyKey<T> extends CoreDependencyKey<T> {
@@ -93,13 +116,13 @@ public class StandardInjector {
 		@Override
 		public T get() {
 			checkInitialized();
-			if (supplier == null) {
-				synchronized (coreInjector.recipeLock) {
-					if (supplier == null)
-						supplier = coreInjector.getInstanceSupplier(key);
-				}
+			Supplier<T> tmp = supplier;
+			if (tmp == null) {
+				// the compiled recipe is cached by the core injector, no need to lock
+				tmp = coreInjector.getInstanceSupplier(key);
+				supplier = tmp;
 			}
-			return supplier.get();
+			return tmp.get();
 		}
 
 		@Override
@@ -112,6 +135,39 @@ public class StandardInjector {
 	private StandardInjectorConfiguration config;
 	private CoreInjector coreInjector;
 	private final Map<Object, MembersInjectionToken<?>> memberInjectionTokens = new IdentityHashMap<>();
+	private final ReentrantLock memberInjectionTokensLock = new ReentrantLock();
+	private final SingletonInstantiationRecorder eagerInstantiationRecorder = new SingletonInstantiationRecorder();
+
+	/**
+	 * Number of slots assigned by {@link #classSlots}
+	 */
+	private static final AtomicInteger classSlotCount = new AtomicInteger();
+
+	/**
+	 * Index of the slot of a class in the {@link #classSuppliers} of every
+	 * injector. Shared by all injectors and only holding integers, such that
+	 * the class values do not keep injectors reachable (JDK-8136353).
+	 */
+	private static final ClassValue<Integer> classSlots = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			return classSlotCount.getAndIncrement();
+		}
+	};
+
+	/**
+	 * Marks classes without recipe in the {@link #classSuppliers}
+	 */
+	private static final Object NO_RECIPE = new Object();
+
+	/**
+	 * Compiled recipes of the keys requested by {@link #getInstance(Class)},
+	 * indexed by {@link #classSlots}, looked up without allocating a key and
+	 * without hashing. A slot is null if the class has not been looked up yet.
+	 * Grown geometrically while holding the {@link #classSuppliersLock}.
+	 */
+	private volatile AtomicReferenceArray<Object> classSuppliers = new AtomicReferenceArray<>(16);
+	private final ReentrantLock classSuppliersLock = new ReentrantLock();
 
 	public StandardInjector(StandardInjectorConfiguration config) {
 		this.config = config;
@@ -124,7 +180,6 @@ public class StandardInjector {
 	}
 
 	public void initialize() {
-		ByteBuddyAgent.install();
 		if (!config.errorMessages.isEmpty()) {
 			throw new SaltaException("There were Errors:\n"
 					+ config.errorMessages.stream().map(msg -> msg.getMessage()).collect(joining("\n")));
@@ -132,6 +187,10 @@ public class StandardInjector {
 
 		coreInjector = new CoreInjector(config.config,
 				config.creationPipeline.coreCreationRuleSuppliers.stream().map(s -> s.get()).collect(toList()));
+		coreInjector.addCompiledRecipeReplacedListener((key, supplier) -> {
+			if (key instanceof ClassDependencyKey)
+				setClassSupplier(classSlots.get(((ClassDependencyKey<?>) key).type), supplier);
+		});
 
 		while (!config.staticInitializers.isEmpty()) {
 			ArrayList<Runnable> tmp = new ArrayList<>(config.staticInitializers);
@@ -151,6 +210,162 @@ public class StandardInjector {
 		}
 	}
 
+	/**
+	 * Perform the eager instantiation of the given bindings using
+	 * {@link Scope#performEagerInstantiation(RecipeCreationContext, Binding)}.
+	 * Skipped if the injector is used for
+	 * {@link CoreInjectorConfiguration#aheadOfTimeCompilation}.
+	 *
+	 * <p>
+	 * If {@link StandardInjectorConfiguration#eagerInstantiationPool} is set,
+	 * the dependency DAG of the singletons is built from the recipes of the
+	 * bindings first, see {@link SingletonDependencyCollector}. Then each
+	 * singleton is instantiated on the pool as soon as its dependencies are
+	 * instantiated, and the instantiations are recorded, see
+	 * {@link #getEagerInstantiationRecorder()}. Bindings of other scopes are
+	 * instantiated concurrently without waiting for any dependency.
+	 * </p>
+	 */
+	public void performEagerInstantiations(Collection<? extends Binding> bindings) {
+		checkInitialized();
+		if (config.config.aheadOfTimeCompilation)
+			return;
+		ForkJoinPool pool = config.eagerInstantiationPool;
+		if (pool == null) {
+			coreInjector.withRecipeCreationContext(ctx -> {
+				for (Binding b : bindings) {
+					b.getScope().performEagerInstantiation(ctx, b);
+				}
+				return null;
+			});
+			return;
+		}
+
+		SingletonDependencyCollector collector = new SingletonDependencyCollector(coreInjector);
+		List<Binding> others = new ArrayList<>();
+		for (Binding b : bindings) {
+			if (!collector.add(b))
+				others.add(b);
+		}
+		try {
+			collector.processQueuedActions();
+		} catch (SaltaException e) {
+			throw new SaltaException("Error while processing queued actions", e);
+		}
+
+		List<Future<?>> tasks = new ArrayList<>();
+		for (Binding b : others) {
+			tasks.add(pool.submit(() -> coreInjector.withRecipeCreationContext(ctx -> {
+				b.getScope().performEagerInstantiation(ctx, b);
+				return null;
+			})));
+		}
+		tasks.addAll(scheduleSingletonInstantiations(pool, collector.getDependencies()));
+		awaitEagerInstantiations(tasks);
+	}
+
+	/**
+	 * Schedule the instantiation of each singleton once its dependencies are
+	 * instantiated. The singletons are processed in topological order, such
+	 * that the tasks of the dependencies exist when scheduling a singleton.
+	 */
+	private List<CompletableFuture<Void>> scheduleSingletonInstantiations(ForkJoinPool pool,
+			Map<Binding, Set<Binding>> dependencies) {
+		Map<Binding, Integer> pendingDependencies = new HashMap<>();
+		Map<Binding, List<Binding>> dependents = new HashMap<>();
+		ArrayDeque<Binding> ready = new ArrayDeque<>();
+		for (Entry<Binding, Set<Binding>> entry : dependencies.entrySet()) {
+			Binding binding = entry.getKey();
+			eagerInstantiationRecorder.addNode(binding, entry.getValue());
+			pendingDependencies.put(binding, entry.getValue().size());
+			if (entry.getValue().isEmpty())
+				ready.add(binding);
+			for (Binding dependency : entry.getValue())
+				dependents.computeIfAbsent(dependency, x -> new ArrayList<>()).add(binding);
+		}
+
+		Map<Binding, CompletableFuture<Void>> tasks = new LinkedHashMap<>();
+		while (!ready.isEmpty()) {
+			Binding binding = ready.poll();
+			CompletableFuture<?>[] dependencyTasks = dependencies.get(binding).stream().map(tasks::get)
+					.toArray(CompletableFuture<?>[]::new);
+			SingletonScope scope = (SingletonScope) binding.getScope();
+			tasks.put(binding, CompletableFuture.allOf(dependencyTasks)
+					.thenRunAsync(() -> coreInjector.withRecipeCreationContext(ctx -> {
+						scope.instantiate(ctx, binding, eagerInstantiationRecorder);
+						return null;
+					}), pool));
+			for (Binding dependent : dependents.getOrDefault(binding, Collections.emptyList())) {
+				if (pendingDependencies.merge(dependent, -1, Integer::sum) == 0)
+					ready.add(dependent);
+			}
+		}
+
+		if (tasks.size() < dependencies.size())
+			// dependency circles are detected while creating the recipes
+			throw new SaltaException("Detected Dependency Circle between the singletons "
+					+ dependencies.keySet().stream().filter(b -> !tasks.containsKey(b)).map(String::valueOf)
+							.collect(joining("\n", "\n", "\n")));
+		return new ArrayList<>(tasks.values());
+	}
+
+	private void awaitEagerInstantiations(List<? extends Future<?>> tasks) {
+		RuntimeException error = null;
+		Set<Throwable> causes = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Future<?> task : tasks) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SaltaException("Interrupted while waiting for eager instantiations", e);
+			} catch (ExecutionException e) {
+				// the failure of a singleton is propagated to its dependents
+				if (!causes.add(e.getCause()))
+					continue;
+				RuntimeException cause = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+						: new SaltaException("Error during eager instantiation", e.getCause());
+				if (error == null)
+					error = cause;
+				else
+					error.addSuppressed(cause);
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Compile the recipes of all static bindings with a known set of
+	 * {@link StaticBinding#getPossibleTypes() possible types}, as they would
+	 * be compiled for a key of the respective type. Combined with a
+	 * {@link CoreInjectorConfiguration#compiledClassCache} keyed by recipe,
+	 * this is used to compile the recipes ahead of time. Unless
+	 * {@link CoreInjectorConfiguration#aheadOfTimeCompilation} is set,
+	 * singletons are instantiated while creating their recipes.
+	 */
+	public void compileStaticBindings() {
+		checkInitialized();
+		for (StaticBinding binding : config.creationPipeline.staticBindings) {
+			Set<TypeToken<?>> types = binding.getPossibleTypes();
+			if (types == null)
+				continue;
+			for (TypeToken<?> type : types) {
+				CoreDependencyKey<?> key = DependencyKey.of(type);
+				coreInjector.withRecipeCreationContext(ctx -> coreInjector.compileSupplier(
+						config.config.applyEnhancers(binding.getScope().createRecipe(ctx, binding, key), ctx, key)));
+			}
+		}
+	}
+
+	/**
+	 * Recorder of the singletons instantiated concurrently by
+	 * {@link #performEagerInstantiations(Collection)}. Use it to determine the
+	 * critical path of the eager instantiation.
+	 */
+	public SingletonInstantiationRecorder getEagerInstantiationRecorder() {
+		return eagerInstantiationRecorder;
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void injectMembers(Object instance) {
 		injectMembers((TypeToken) TypeToken.of(instance.getClass()), instance);
@@ -174,6 +389,19 @@ public class StandardInjector {
 		return getProvider(DependencyKey.of(type));
 	}
 
+	/**
+	 * Resolve the key and return a handle creating instances without any
+	 * further lookup. Use it to instantiate a key repeatedly.
+	 */
+	public <T> InstanceHandle<T> getInstanceHandle(CoreDependencyKey<T> key) {
+		checkInitialized();
+		return coreInjector.getInstanceHandle(key);
+	}
+
+	public <T> InstanceHandle<T> getInstanceHandle(Class<T> type) {
+		return getInstanceHandle(DependencyKey.of(type));
+	}
+
 	public <T> Optional<T> tryGetInstance(CoreDependencyKey<T> key) {
 		checkInitialized();
 		return coreInjector.tryGetInstance(key);
@@ -188,9 +416,73 @@ public class StandardInjector {
 		return tryGetInstance(new ClassDependencyKey<>(type));
 	}
 
+	@SuppressWarnings("unchecked")
 	public <T> T getInstance(Class<T> type) {
 		checkInitialized();
-		return coreInjector.getInstance(new ClassDependencyKey<>(type));
+		Object supplier;
+		try {
+			supplier = getClassSupplier(type);
+		} catch (Throwable e) {
+			throw new SaltaException("Error while creating instance for " + new ClassDependencyKey<>(type), e);
+		}
+		if (supplier == NO_RECIPE)
+			// let the core injector report the missing recipe
+			return coreInjector.getInstance(new ClassDependencyKey<>(type));
+		try {
+			return (T) ((CompiledSupplier) supplier).get();
+		} catch (Throwable e) {
+			throw new SaltaException("Error while creating instance for " + new ClassDependencyKey<>(type), e);
+		}
+	}
+
+	/**
+	 * Get the compiled recipe of a class from the {@link #classSuppliers}, or
+	 * {@link #NO_RECIPE}
+	 */
+	private Object getClassSupplier(Class<?> type) {
+		int slot = classSlots.get(type);
+		AtomicReferenceArray<Object> suppliers = classSuppliers;
+		if (slot < suppliers.length()) {
+			Object supplier = suppliers.get(slot);
+			if (supplier != null)
+				return supplier;
+		}
+
+		ClassDependencyKey<?> key = new ClassDependencyKey<>(type);
+		Object supplier = lookupClassSupplier(key);
+		setClassSupplier(slot, supplier);
+
+		// the compiled recipe might have been replaced before the slot was
+		// set, without the listener seeing the slot
+		Object current = lookupClassSupplier(key);
+		if (current != supplier) {
+			setClassSupplier(slot, current);
+			supplier = current;
+		}
+		return supplier;
+	}
+
+	private Object lookupClassSupplier(ClassDependencyKey<?> key) {
+		Optional<CompiledSupplier> supplier = coreInjector.tryGetCompiledRecipe(key);
+		return supplier.isPresent() ? supplier.get() : NO_RECIPE;
+	}
+
+	private void setClassSupplier(int slot, Object supplier) {
+		classSuppliersLock.lock();
+		try {
+			AtomicReferenceArray<Object> suppliers = classSuppliers;
+			if (slot >= suppliers.length()) {
+				AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(
+						Math.max(suppliers.length() * 2, slot + 1));
+				for (int i = 0; i < suppliers.length(); i++)
+					grown.set(i, suppliers.get(i));
+				suppliers = grown;
+				classSuppliers = grown;
+			}
+			suppliers.set(slot, supplier);
+		} finally {
+			classSuppliersLock.unlock();
+		}
 	}
 
 	public CoreInjector getCoreInjector() {
@@ -204,7 +496,8 @@ public class StandardInjector {
 	}
 
 	public <T> MembersInjectionToken<T> getMembersInjectionToken(T value, TypeToken<T> type) {
-		synchronized (memberInjectionTokens) {
+		memberInjectionTokensLock.lock();
+		try {
 			@SuppressWarnings("unchecked")
 			MembersInjectionToken<T> token = (MembersInjectionToken<T>) memberInjectionTokens.get(value);
 
@@ -213,6 +506,8 @@ public class StandardInjector {
 				memberInjectionTokens.put(value, token);
 			}
 			return token;
+		} finally {
+			memberInjectionTokensLock.unlock();
 		}
 	}
 
@@ -225,18 +225,17 @@ public class StandardBinder {
 	 */
 	public <T> Consumer<T> getMembersInjector(TypeToken<T> typeLiteral) {
 		return new Consumer<>() {
-			volatile boolean injected;
-			Consumer<T> inner;
+			volatile Consumer<T> inner;
 
 			@Override
 			public void accept(T instance) {
-				if (!injected) {
-					synchronized (injector.getCoreInjector().recipeLock) {
-						inner = injector.getMembersInjector(typeLiteral);
-						injected = true;
-					}
+				Consumer<T> tmp = inner;
+				if (tmp == null) {
+					// the members injector is cached by the injector, no need to lock
+					tmp = injector.getMembersInjector(typeLiteral);
+					inner = tmp;
 				}
-				inner.accept(instance);
+				tmp.accept(instance);
 			}
 
 			@Override
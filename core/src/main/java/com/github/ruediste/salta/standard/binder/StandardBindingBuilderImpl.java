@@ -2,6 +2,8 @@ package com.github.ruediste.salta.standard.binder;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -9,6 +11,8 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 
+import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.RecipeCreationContext;
 import com.github.ruediste.salta.core.SaltaException;
@@ -125,6 +129,11 @@ public class StandardBindingBuilderImpl<T> implements StandardAnnotatedBindingBu
                         ctx.addFieldAndLoad(Object.class, injected);
                         return Object.class;
                     }
+
+                    @Override
+                    public CompiledSupplier createInterpreter() {
+                        return () -> injected;
+                    }
                 };
             }
         };
@@ -192,6 +201,15 @@ public class StandardBindingBuilderImpl<T> implements StandardAnnotatedBindingBu
                                         Method.getMethod("Object apply(Object)"));
                                 return Object.class;
                             }
+
+                            @SuppressWarnings({ "unchecked", "rawtypes" })
+                            @Override
+                            public CompiledSupplier createInterpreter() {
+                                CompiledSupplier provider = recipe.createInterpreter();
+                                if (provider == null)
+                                    return null;
+                                return () -> ((Function) providerWrapper).apply(provider.get());
+                            }
                         };
                     }
                 };
@@ -231,10 +249,15 @@ public class StandardBindingBuilderImpl<T> implements StandardAnnotatedBindingBu
     @Override
     public void asEagerSingleton() {
         this.scopeSupplier = () -> config.singletonScope;
-        config.dynamicInitializers.add(() -> injector.getCoreInjector().withRecipeCreationContext(ctx -> {
-            binding.getScope().performEagerInstantiation(ctx, binding);
-            return null;
-        }));
+        // instantiate all eager singletons in a single call, such that they
+        // can be instantiated concurrently
+        if (config.eagerSingletonBindings.isEmpty())
+            config.dynamicInitializers.add(() -> {
+                List<Binding> bindings = new ArrayList<>(config.eagerSingletonBindings);
+                config.eagerSingletonBindings.clear();
+                injector.performEagerInstantiations(bindings);
+            });
+        config.eagerSingletonBindings.add(binding);
     }
 
     @Override
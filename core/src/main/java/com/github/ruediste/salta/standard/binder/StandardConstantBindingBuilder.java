@@ -2,6 +2,7 @@ package com.github.ruediste.salta.standard.binder;
 
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.RecipeCreationContext;
 import com.github.ruediste.salta.core.SaltaException;
@@ -51,6 +52,11 @@ public class StandardConstantBindingBuilder {
 						return cls;
 					}
 
+					@Override
+					public CompiledSupplier createInterpreter() {
+						return () -> value;
+					}
+
 				};
 			}
 		};
@@ -0,0 +1,137 @@
+package com.github.ruediste.salta.standard.config;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.CompiledSupplier;
+import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.core.KeyLockManager;
+import com.github.ruediste.salta.core.RecipeCreationContext;
+import com.github.ruediste.salta.core.compile.MethodCompilationContext;
+import com.github.ruediste.salta.core.compile.RecipeCompiler;
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+
+/**
+ * Singleton scope which instantiates the instance when it is accessed for the
+ * first time. In contrast to the {@link SingletonScope}, creating or compiling
+ * a recipe does not instantiate the singleton, and eager instantiation is
+ * skipped. Set it as {@link StandardInjectorConfiguration#singletonScope} to
+ * make all singletons lazy, or bind individual keys in this scope.
+ *
+ * <p>
+ * The compiled recipes invoke the target of a {@link MutableCallSite}. The
+ * initial target instantiates the singleton using the construction handling
+ * of the {@link SingletonScope}, thus concurrent requests and dependency
+ * circles across threads are detected the same way, and no class
+ * initialization lock is held while the constructor runs. Once the instance
+ * exists, it is published as constant target. Afterwards, reading the instance
+ * is as cheap as the constant field load of the {@link SingletonScope}.
+ * </p>
+ */
+public class LazySingletonScope extends SingletonScope {
+
+	private static final MethodHandle GET_AND_PUBLISH;
+	static {
+		try {
+			GET_AND_PUBLISH = MethodHandles.lookup().findVirtual(LazyInstance.class, "getAndPublish",
+					MethodType.methodType(Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "LazySingleton";
+	}
+
+	@Override
+	public SupplierRecipe createRecipe(RecipeCreationContext ctx, Binding binding, CoreDependencyKey<?> requestedKey) {
+		LazyInstance lazyInstance = new LazyInstance(ctx.getLockManager(), ctx.getCompiler(), binding,
+				binding.getOrCreateRecipe(ctx));
+
+		return new SupplierRecipe() {
+
+			@Override
+			public Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+				ctx.addFieldAndLoad(MethodHandle.class, lazyInstance.invoker);
+				mv.invokeVirtual(Type.getType(MethodHandle.class),
+						new Method("invokeExact", Type.getType(Object.class), new Type[] {}));
+
+				Class<?> type = requestedKey.getRawType();
+				if (!ctx.getClassCtx().isClassAccessible(type))
+					return Object.class;
+				mv.checkCast(Type.getType(type));
+				return type;
+			}
+
+			@Override
+			public CompiledSupplier createInterpreter() {
+				return lazyInstance;
+			}
+		};
+	}
+
+	@Override
+	public void performEagerInstantiation(RecipeCreationContext ctx, Binding binding) {
+		// instantiated on first access
+	}
+
+	@Override
+	boolean isPendingEagerInstantiation(Binding binding) {
+		return false;
+	}
+
+	/**
+	 * Provides the instance of a binding, instantiating it if necessary. Used
+	 * as interpreter and as initial target of the call site read by the
+	 * compiled code.
+	 */
+	private class LazyInstance implements CompiledSupplier {
+		private final KeyLockManager lockManager;
+		private final RecipeCompiler compiler;
+		private final Binding binding;
+		private final SupplierRecipe innerRecipe;
+
+		private final MutableCallSite callSite = new MutableCallSite(MethodType.methodType(Object.class));
+
+		/**
+		 * Invoker of the {@link #callSite}, loaded as constant by the compiled
+		 * code
+		 */
+		final MethodHandle invoker = callSite.dynamicInvoker();
+
+		LazyInstance(KeyLockManager lockManager, RecipeCompiler compiler, Binding binding, SupplierRecipe innerRecipe) {
+			this.lockManager = lockManager;
+			this.compiler = compiler;
+			this.binding = binding;
+			this.innerRecipe = innerRecipe;
+			callSite.setTarget(GET_AND_PUBLISH.bindTo(this));
+		}
+
+		@Override
+		public Object get() throws Throwable {
+			return getInstance(lockManager, compiler, binding, () -> innerRecipe);
+		}
+
+		/**
+		 * Get the instance and replace the target of the call site with the
+		 * constant instance. Failures are propagated, and the call site keeps
+		 * its target, such that the next access retries the instantiation.
+		 */
+		@SuppressWarnings("unused")
+		private Object getAndPublish() throws Throwable {
+			Object result = get();
+			callSite.setTarget(MethodHandles.constant(Object.class, result));
+			MutableCallSite.syncAll(new MutableCallSite[] { callSite });
+			return result;
+		}
+	}
+}
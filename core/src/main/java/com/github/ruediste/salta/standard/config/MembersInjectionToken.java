@@ -21,12 +21,13 @@ public class MembersInjectionToken<T> {
 
     public T getValue() {
         if (!injected)
-            synchronized (injector.getCoreInjector().recipeLock) {
+            injector.getCoreInjector().getLockManager().withLock(this, () -> {
                 if (!injected) {
                     injector.injectMembers(type, value);
                     injected = true;
                 }
-            }
+                return null;
+            });
         return value;
     }
 }
\ No newline at end of file
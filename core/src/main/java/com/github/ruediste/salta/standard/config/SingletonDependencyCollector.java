@@ -0,0 +1,86 @@
+package com.github.ruediste.salta.standard.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.CoreInjector;
+import com.github.ruediste.salta.core.RecipeCreationContext;
+import com.github.ruediste.salta.core.RecipeCreationContextImpl;
+import com.github.ruediste.salta.core.Scope;
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+
+/**
+ * Builds the dependency DAG of singletons from the recipes of their bindings,
+ * without instantiating any singleton. Used as {@link RecipeCreationContext}
+ * while creating the recipes: instead of instantiating a singleton, the
+ * {@link SingletonScope} reports it as dependency of the singleton whose
+ * recipe is being created, and the recipe of the dependency is created in
+ * turn.
+ *
+ * <p>
+ * Singletons reached through bindings of other scopes are dependencies of the
+ * nearest enclosing singleton. If the recipe of a binding has been created
+ * before, its dependencies are not known. They are instantiated together with
+ * the binding.
+ * </p>
+ */
+public class SingletonDependencyCollector extends RecipeCreationContextImpl {
+
+	private final LinkedHashMap<Binding, Set<Binding>> dependencies = new LinkedHashMap<>();
+
+	/**
+	 * The singleton whose recipe is currently being created
+	 */
+	private Binding current;
+
+	public SingletonDependencyCollector(CoreInjector coreInjector) {
+		super(coreInjector);
+	}
+
+	/**
+	 * Add a binding and the singletons it depends on to the DAG. Ignored if
+	 * the binding is not eagerly instantiated by a {@link SingletonScope} or if
+	 * it has already been instantiated.
+	 *
+	 * @return true if the binding has been added
+	 */
+	public boolean add(Binding binding) {
+		Scope scope = binding.getScope();
+		if (!(scope instanceof SingletonScope) || !((SingletonScope) scope).isPendingEagerInstantiation(binding))
+			return false;
+		createRecipe(binding);
+		return true;
+	}
+
+	/**
+	 * Add a singleton the current singleton depends on, and return the recipe
+	 * of its binding
+	 */
+	SupplierRecipe addDependency(Binding binding) {
+		if (current != null)
+			dependencies.get(current).add(binding);
+		return createRecipe(binding);
+	}
+
+	private SupplierRecipe createRecipe(Binding binding) {
+		dependencies.computeIfAbsent(binding, b -> new LinkedHashSet<>());
+		Binding parent = current;
+		current = binding;
+		try {
+			return binding.getOrCreateRecipe(this);
+		} finally {
+			current = parent;
+		}
+	}
+
+	/**
+	 * The collected singletons, mapped to the singletons they depend on
+	 */
+	public Map<Binding, Set<Binding>> getDependencies() {
+		return Collections.unmodifiableMap(dependencies);
+	}
+}
@@ -0,0 +1,163 @@
+package com.github.ruediste.salta.standard.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import com.github.ruediste.salta.core.Binding;
+
+/**
+ * Records the instantiations of singletons in the order of their dependency
+ * DAG. The DAG is {@link #addNode(Binding, Collection) added} before the
+ * instantiation (see {@link SingletonDependencyCollector}), then the time spent
+ * constructing each instance is {@link #record(Binding, BooleanSupplier)
+ * recorded}. The result is used to determine the critical path, the chain of
+ * dependent singletons which bounds the time required to instantiate all
+ * singletons, even if unrelated singletons are instantiated in parallel.
+ *
+ * <p>
+ * Since the dependencies of a singleton are instantiated before the singleton
+ * itself, the duration of a singleton does not include its dependencies.
+ * </p>
+ */
+public class SingletonInstantiationRecorder {
+
+	/**
+	 * Node of the dependency DAG
+	 */
+	public static class Node {
+		private final Binding binding;
+		private volatile long durationNanos;
+		private final Set<Binding> dependencies = ConcurrentHashMap.newKeySet();
+
+		Node(Binding binding) {
+			this.binding = binding;
+		}
+
+		public Binding getBinding() {
+			return binding;
+		}
+
+		/**
+		 * Time spent constructing the instance, without the dependencies
+		 */
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		/**
+		 * The singletons the instance depends on
+		 */
+		public Set<Binding> getDependencies() {
+			return Collections.unmodifiableSet(dependencies);
+		}
+
+		@Override
+		public String toString() {
+			return binding + " (" + TimeUnit.NANOSECONDS.toMicros(durationNanos) + " us)";
+		}
+	}
+
+	private final ConcurrentHashMap<Binding, Node> nodes = new ConcurrentHashMap<>();
+
+	/**
+	 * Add a node to the dependency DAG
+	 */
+	public void addNode(Binding binding, Collection<Binding> dependencies) {
+		nodes.computeIfAbsent(binding, Node::new).dependencies.addAll(dependencies);
+	}
+
+	/**
+	 * Record the instantiation of a binding.
+	 *
+	 * @param instantiation
+	 *            performs the instantiation. Returns true if the instance was
+	 *            created by the current invocation, false if it has been
+	 *            created already
+	 */
+	public void record(Binding binding, BooleanSupplier instantiation) {
+		Node node = nodes.computeIfAbsent(binding, Node::new);
+		long start = System.nanoTime();
+		if (instantiation.getAsBoolean())
+			node.durationNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * All recorded nodes of the dependency DAG
+	 */
+	public Collection<Node> getNodes() {
+		return Collections.unmodifiableCollection(nodes.values());
+	}
+
+	/**
+	 * Return the critical path, the chain of dependent singletons with the
+	 * largest total duration. The first node depends on the second and so on.
+	 */
+	public List<Node> getCriticalPath() {
+		Map<Node, Long> pathNanos = new HashMap<>();
+		Map<Node, Node> next = new HashMap<>();
+		Node start = null;
+		long max = -1;
+		for (Node node : nodes.values()) {
+			long nanos = computePath(node, pathNanos, next);
+			if (nanos > max) {
+				max = nanos;
+				start = node;
+			}
+		}
+		List<Node> result = new ArrayList<>();
+		for (Node node = start; node != null && !result.contains(node); node = next.get(node))
+			result.add(node);
+		return result;
+	}
+
+	/**
+	 * Total duration of the {@link #getCriticalPath() critical path}
+	 */
+	public long getCriticalPathNanos() {
+		return getCriticalPath().stream().mapToLong(Node::getDurationNanos).sum();
+	}
+
+	private long computePath(Node node, Map<Node, Long> pathNanos, Map<Node, Node> next) {
+		Long result = pathNanos.get(node);
+		if (result != null)
+			return result;
+		// guard against cycles, which are reported while collecting the
+		// dependencies
+		pathNanos.put(node, node.durationNanos);
+
+		long max = 0;
+		for (Binding dependency : node.dependencies) {
+			Node depNode = nodes.get(dependency);
+			if (depNode == null || depNode == node)
+				continue;
+			long depNanos = computePath(depNode, pathNanos, next);
+			if (next.get(node) == null || depNanos > max) {
+				max = depNanos;
+				next.put(node, depNode);
+			}
+		}
+		result = node.durationNanos + max;
+		pathNanos.put(node, result);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		List<Node> path = getCriticalPath();
+		StringBuilder sb = new StringBuilder();
+		sb.append("Instantiated ").append(nodes.size()).append(" singletons, critical path ")
+				.append(TimeUnit.NANOSECONDS.toMicros(path.stream().mapToLong(Node::getDurationNanos).sum()))
+				.append(" us:");
+		for (Node node : path)
+			sb.append("\n  ").append(node);
+		return sb.toString();
+	}
+}
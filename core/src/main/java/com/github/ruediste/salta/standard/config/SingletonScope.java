@@ -1,19 +1,37 @@
 package com.github.ruediste.salta.standard.config;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
 import org.objectweb.asm.commons.GeneratorAdapter;
 
 import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.core.KeyLockManager;
 import com.github.ruediste.salta.core.RecipeCreationContext;
 import com.github.ruediste.salta.core.SaltaException;
 import com.github.ruediste.salta.core.Scope;
 import com.github.ruediste.salta.core.attachedProperties.AttachedProperty;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
+import com.github.ruediste.salta.core.compile.RecipeCompiler;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
 import com.github.ruediste.salta.standard.util.Accessibility;
 
 public class SingletonScope implements Scope {
 
+	/**
+	 * Thrown if a singleton is requested by the thread constructing it, for
+	 * example from the constructor through a provider.
+	 */
+	public static class SingletonAccessBeforeConstructionFinishedException extends SaltaException {
+		private static final long serialVersionUID = 1L;
+
+		SingletonAccessBeforeConstructionFinishedException(Binding binding) {
+			super("Detected Dependency Circle: singleton requested while it is being constructed:\n" + binding);
+		}
+	}
+
 	private static AttachedProperty<Binding, Object> instance = new AttachedProperty<>("singleton instance");
 
 	@Override
@@ -23,9 +41,26 @@ public class SingletonScope implements Scope {
 
 	@Override
 	public SupplierRecipe createRecipe(RecipeCreationContext ctx, Binding binding, CoreDependencyKey<?> requestedKey) {
-		// make sure to create the instance when first creating the recipe
-		instantiate(ctx, binding);
+		if (ctx instanceof SingletonDependencyCollector && !instance.isSet(binding)) {
+			// only collect the dependency. Instantiate the singleton if the
+			// recipe is used before the singleton has been instantiated
+			SupplierRecipe innerRecipe = ((SingletonDependencyCollector) ctx).addDependency(binding);
+			KeyLockManager lockManager = ctx.getLockManager();
+			RecipeCompiler compiler = ctx.getCompiler();
+			return createInstanceRecipe(requestedKey,
+					() -> getInstance(lockManager, compiler, binding, () -> innerRecipe));
+		}
+
+		// make sure to create the instance when first creating the recipe. If
+		// compiled ahead of time, the recipe is never evaluated and the
+		// instance is not needed
+		if (!ctx.isAheadOfTimeCompilation())
+			instantiate(ctx, binding);
 
+		return createInstanceRecipe(requestedKey, () -> instance.get(binding));
+	}
+
+	private SupplierRecipe createInstanceRecipe(CoreDependencyKey<?> requestedKey, Supplier<Object> instanceSupplier) {
 		return new SupplierRecipe() {
 
 			@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -36,9 +71,15 @@ public class SingletonScope implements Scope {
 				if (!Accessibility.isClassAccessible(fieldType, ctx.getCompiledCodeClassLoader())) {
 					fieldType = Object.class;
 				}
-				ctx.addFieldAndLoad((Class) fieldType, instance.get(binding));
+				ctx.addFieldAndLoad((Class) fieldType, instanceSupplier.get());
 				return fieldType;
 			}
+
+			@Override
+			public CompiledSupplier createInterpreter() {
+				Object value = instanceSupplier.get();
+				return () -> value;
+			}
 		};
 	}
 
@@ -48,16 +89,122 @@ public class SingletonScope implements Scope {
 	}
 
 	/**
-	 * Instantiate the instance
+	 * Instantiate the instance. Only the recipe of the binding is created while
+	 * holding the lock of the binding. The constructor runs without holding it,
+	 * such that threads resolving other keys are not blocked by a slow
+	 * singleton. Concurrent requesters of the same binding wait for the
+	 * {@link Construction} in flight, thus only one instance is created.
 	 */
 	public void instantiate(RecipeCreationContext ctx, Binding binding) {
-		if (!instance.isSet(binding)) {
-			SupplierRecipe innerRecipe = binding.getOrCreateRecipe(ctx);
-			try {
-				instance.set(binding, ctx.getCompiler().compileSupplier(innerRecipe).get());
-			} catch (Throwable t) {
-				throw new SaltaException("Error while instantiating instance for " + binding, t);
-			}
+		instantiate(ctx.getLockManager(), ctx.getCompiler(), binding, () -> binding.getOrCreateRecipe(ctx));
+	}
+
+	/**
+	 * Instantiate the instance and record the instantiation with the given
+	 * recorder
+	 */
+	public void instantiate(RecipeCreationContext ctx, Binding binding, SingletonInstantiationRecorder recorder) {
+		recorder.record(binding, () -> instantiateImpl(ctx.getLockManager(), ctx.getCompiler(), binding,
+				() -> binding.getOrCreateRecipe(ctx)));
+	}
+
+	/**
+	 * Instantiate the instance using the given recipe of the binding. Used to
+	 * instantiate the instance outside of recipe creation, see
+	 * {@link LazySingletonScope}.
+	 */
+	void instantiate(KeyLockManager lockManager, RecipeCompiler compiler, Binding binding,
+			Supplier<SupplierRecipe> innerRecipe) {
+		instantiateImpl(lockManager, compiler, binding, innerRecipe);
+	}
+
+	/**
+	 * If true, the binding is instantiated by
+	 * {@link #performEagerInstantiation(RecipeCreationContext, Binding)} and
+	 * has not been instantiated yet
+	 */
+	boolean isPendingEagerInstantiation(Binding binding) {
+		return !instance.isSet(binding);
+	}
+
+	/**
+	 * Return the instance of the binding, instantiating it if necessary
+	 */
+	Object getInstance(KeyLockManager lockManager, RecipeCompiler compiler, Binding binding,
+			Supplier<SupplierRecipe> innerRecipe) {
+		if (!instance.isSet(binding))
+			instantiate(lockManager, compiler, binding, innerRecipe);
+		return instance.get(binding);
+	}
+
+	/**
+	 * A construction of a singleton instance in flight. The constructing thread
+	 * holds the lock of the construction (see
+	 * {@link RecipeCreationContext#getLockManager()}) until the construction is
+	 * finished. Other threads wait for the lock, which detects dependency
+	 * circles across threads.
+	 */
+	private static class Construction {
+		final Binding binding;
+		final Thread thread = Thread.currentThread();
+
+		Construction(Binding binding) {
+			this.binding = binding;
+		}
+
+		@Override
+		public String toString() {
+			return "construction of " + binding;
 		}
 	}
-}
\ No newline at end of file
+
+	private final ConcurrentHashMap<Binding, Construction> constructions = new ConcurrentHashMap<>();
+
+	/**
+	 * @return true if the instance was created by this invocation
+	 */
+	private boolean instantiateImpl(KeyLockManager lockManager, RecipeCompiler compiler, Binding binding,
+			Supplier<SupplierRecipe> innerRecipeSupplier) {
+		if (instance.isSet(binding))
+			return false;
+		SupplierRecipe innerRecipe = innerRecipeSupplier.get();
+		while (true) {
+			Construction construction = new Construction(binding);
+			Construction existing = lockManager.withLock(construction, () -> {
+				Construction tmp = constructions.putIfAbsent(binding, construction);
+				if (tmp != null)
+					return tmp;
+				try {
+					if (instance.isSet(binding))
+						return null;
+					construct(compiler, binding, innerRecipe);
+					return construction;
+				} finally {
+					constructions.remove(binding);
+				}
+			});
+			if (existing == construction)
+				return true;
+			if (existing == null)
+				return false;
+			if (existing.thread == Thread.currentThread())
+				throw new SingletonAccessBeforeConstructionFinishedException(binding);
+
+			// wait for the construction to finish
+			lockManager.withLock(existing, () -> null);
+			if (instance.isSet(binding))
+				return false;
+			// the construction failed, try again
+		}
+	}
+
+	private void construct(RecipeCompiler compiler, Binding binding, SupplierRecipe innerRecipe) {
+		try {
+			// the recipe is only evaluated once, avoid defining a class
+			instance.set(binding, compiler.compileSupplierLazily(innerRecipe).get());
+		} catch (Throwable t) {
+			throw new SaltaException("Error while instantiating instance for " + binding, t);
+		}
+	}
+
+}
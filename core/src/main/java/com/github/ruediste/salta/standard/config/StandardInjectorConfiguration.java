@@ -9,6 +9,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -17,6 +18,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -25,6 +27,8 @@ import java.util.stream.Stream;
 import org.objectweb.asm.commons.GeneratorAdapter;
 
 import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.CompiledFunction;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.CoreInjector;
 import com.github.ruediste.salta.core.CoreInjectorConfiguration;
@@ -39,6 +43,7 @@ import com.github.ruediste.salta.core.StaticBinding;
 import com.github.ruediste.salta.core.StaticBindingSet;
 import com.github.ruediste.salta.core.attachedProperties.AttachedPropertyBearer;
 import com.github.ruediste.salta.core.attachedProperties.AttachedPropertyMap;
+import com.github.ruediste.salta.core.compile.FunctionRecipe;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
 import com.github.ruediste.salta.matchers.Matcher;
@@ -47,6 +52,7 @@ import com.github.ruediste.salta.standard.ScopeRule;
 import com.github.ruediste.salta.standard.Stage;
 import com.github.ruediste.salta.standard.StandardInjector;
 import com.github.ruediste.salta.standard.binder.StandardAnnotatedBindingBuilder;
+import com.github.ruediste.salta.standard.binder.StandardScopedBindingBuilder;
 import com.github.ruediste.salta.standard.recipe.RecipeInitializer;
 import com.github.ruediste.salta.standard.recipe.RecipeInstantiator;
 import com.github.ruediste.salta.standard.recipe.RecipeMembersInjector;
@@ -193,6 +199,26 @@ public class StandardInjectorConfiguration implements AttachedPropertyBearer {
 					return result;
 				}
 
+				@Override
+				public CompiledSupplier createInterpreter() {
+					CompiledSupplier instantiator = recipeInstantiator.createInterpreter();
+					if (instantiator == null)
+						return null;
+					List<CompiledFunction> functions = new ArrayList<>();
+					for (FunctionRecipe recipe : Iterables.concat(memberInjectors, initializers)) {
+						CompiledFunction function = recipe.createInterpreter();
+						if (function == null)
+							return null;
+						functions.add(function);
+					}
+					return () -> {
+						Object result = instantiator.get();
+						for (CompiledFunction function : functions)
+							result = function.get(result);
+						return result;
+					};
+				}
+
 				@Override
 				public String toString() {
 					return "SupplierRecipe[given instantiator, default membersinjectors and initializers](instantiator="
@@ -416,6 +442,24 @@ public class StandardInjectorConfiguration implements AttachedPropertyBearer {
 	 */
 	public final List<CoreDependencyKey<?>> requestedEagerInstantiations = new ArrayList<>();
 
+	/**
+	 * Bindings registered as eager singletons (see
+	 * {@link StandardScopedBindingBuilder#asEagerSingleton()}). They are
+	 * instantiated together by a single call to
+	 * {@link StandardInjector#performEagerInstantiations(Collection)}, such
+	 * that they can be instantiated concurrently.
+	 */
+	public final List<Binding> eagerSingletonBindings = new ArrayList<>();
+
+	/**
+	 * If set, the instances created by
+	 * {@link StandardInjector#performEagerInstantiations(Collection)} are
+	 * instantiated concurrently using this pool. Since an instance waits for the
+	 * instantiation of its dependencies, the order of the dependencies is
+	 * respected. If null, the instances are created one after another.
+	 */
+	public ForkJoinPool eagerInstantiationPool;
+
 	/**
 	 * Extractors of the required qualifier. This qualifier will be matched against
 	 * the qualifier available on types (JIT bindings, see
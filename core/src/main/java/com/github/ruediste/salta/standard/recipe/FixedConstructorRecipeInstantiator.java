@@ -9,6 +9,7 @@ import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,6 +18,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
 import com.github.ruediste.salta.standard.util.Accessibility;
@@ -39,7 +41,7 @@ public class FixedConstructorRecipeInstantiator extends RecipeInstantiator {
 
     @Override
     public Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
-        if (Accessibility.isConstructorAccessible(constructor, ctx.getCompiledCodeClassLoader()))
+        if (ctx.isConstructorAccessible(constructor))
             return compileDirect(mv, ctx);
         else
             return compileDynamic(mv, ctx);
@@ -99,6 +101,20 @@ public class FixedConstructorRecipeInstantiator extends RecipeInstantiator {
         return resultType;
     }
 
+    @Override
+    public CompiledSupplier createInterpreter() {
+        CompiledSupplier[] arguments = createInterpreters(argumentDependencies);
+        if (arguments == null)
+            return null;
+        return () -> {
+            try {
+                return constructor.newInstance(interpret(arguments));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
     public static CallSite bootstrap(Lookup lookup, String methodName, MethodType type, String constructorFieldName)
             throws Exception {
         Field field = lookup.lookupClass().getField(constructorFieldName);
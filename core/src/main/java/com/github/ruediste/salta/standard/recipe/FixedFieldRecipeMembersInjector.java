@@ -14,10 +14,11 @@ import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledFunction;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
 import com.github.ruediste.salta.core.compile.MethodRecipe;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
-import com.github.ruediste.salta.standard.util.Accessibility;
 
 public class FixedFieldRecipeMembersInjector implements RecipeMembersInjector {
 
@@ -33,12 +34,23 @@ public class FixedFieldRecipeMembersInjector implements RecipeMembersInjector {
 
     @Override
     public Class<?> compileImpl(Class<?> argType, GeneratorAdapter mv, MethodCompilationContext ctx) {
-        if (Accessibility.isFieldAccessible(field, ctx.getCompiledCodeClassLoader()))
+        if (ctx.isFieldAccessible(field))
             return compileDirect(argType, mv, ctx);
         else
             return compileDynamic(argType, mv, ctx);
     }
 
+    @Override
+    public CompiledFunction createInterpreter() {
+        CompiledSupplier value = recipe.createInterpreter();
+        if (value == null)
+            return null;
+        return instance -> {
+            field.set(instance, value.get());
+            return instance;
+        };
+    }
+
     protected Class<?> compileDirect(Class<?> argType, GeneratorAdapter mv, MethodCompilationContext ctx) {
         argType = ctx.castToPublic(argType, field.getDeclaringClass());
         mv.dup();
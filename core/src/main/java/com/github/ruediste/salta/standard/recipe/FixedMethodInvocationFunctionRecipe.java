@@ -8,6 +8,7 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
 
@@ -15,10 +16,11 @@ import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledFunction;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.compile.FunctionRecipe;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
-import com.github.ruediste.salta.standard.util.Accessibility;
 import com.google.common.base.Preconditions;
 
 public class FixedMethodInvocationFunctionRecipe implements FunctionRecipe {
@@ -36,12 +38,26 @@ public class FixedMethodInvocationFunctionRecipe implements FunctionRecipe {
     @Override
     public Class<?> compileImpl(Class<?> argType, GeneratorAdapter mv, MethodCompilationContext ctx) {
 
-        if (Accessibility.isMethodAccessible(method, ctx.getCompiledCodeClassLoader()))
+        if (ctx.isMethodAccessible(method))
             return compileDirect(argType, mv, ctx);
         else
             return compileDynamic(argType, mv, ctx);
     }
 
+    @Override
+    public CompiledFunction createInterpreter() {
+        CompiledSupplier[] arguments = SupplierRecipe.createInterpreters(argumentRecipes);
+        if (arguments == null)
+            return null;
+        return instance -> {
+            try {
+                return method.invoke(instance, SupplierRecipe.interpret(arguments));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
     private Class<?> compileDirect(Class<?> argType, GeneratorAdapter mv, MethodCompilationContext ctx) {
 
         // cast receiver
@@ -5,6 +5,7 @@ import java.util.List;
 
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledFunction;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
 import com.github.ruediste.salta.core.compile.SupplierRecipe;
 
@@ -22,4 +23,15 @@ public class FixedMethodRecipeMembersInjector extends FixedMethodInvocationFunct
         ctx.pop(returnType);
         return argType;
     }
+
+    @Override
+    public CompiledFunction createInterpreter() {
+        CompiledFunction invocation = super.createInterpreter();
+        if (invocation == null)
+            return null;
+        return instance -> {
+            invocation.get(instance);
+            return instance;
+        };
+    }
 }
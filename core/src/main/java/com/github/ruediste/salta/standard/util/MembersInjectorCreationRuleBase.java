@@ -1,14 +1,15 @@
 package com.github.ruediste.salta.standard.util;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.objectweb.asm.commons.GeneratorAdapter;
 
 import com.github.ruediste.salta.core.CompiledFunction;
+import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.CoreInjector;
 import com.github.ruediste.salta.core.CreationRule;
@@ -24,8 +25,8 @@ import com.google.common.reflect.TypeToken;
 
 public abstract class MembersInjectorCreationRuleBase implements CreationRule {
 
-    private HashMap<TypeToken<?>, Consumer<?>> membersInjectorCache = new HashMap<>();
-    private HashMap<TypeToken<?>, FunctionRecipe> membersInjectionRecipeCache = new HashMap<>();
+    private ConcurrentHashMap<TypeToken<?>, Consumer<?>> membersInjectorCache = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<TypeToken<?>, FunctionRecipe> membersInjectionRecipeCache = new ConcurrentHashMap<>();
     private StandardInjectorConfiguration config;
 
     public MembersInjectorCreationRuleBase(StandardInjectorConfiguration config) {
@@ -38,7 +39,9 @@ public abstract class MembersInjectorCreationRuleBase implements CreationRule {
         Consumer<?> result = membersInjectorCache.get(typeLiteral);
         if (result == null) {
             result = getMembersInjectorNoCache(typeLiteral, ctx);
-            membersInjectorCache.put(typeLiteral, result);
+            Consumer<?> existing = membersInjectorCache.putIfAbsent(typeLiteral, result);
+            if (existing != null)
+                result = existing;
         }
         return (Consumer<T>) result;
     }
@@ -83,8 +86,8 @@ public abstract class MembersInjectorCreationRuleBase implements CreationRule {
             }
         };
 
-        membersInjectionRecipeCache.put(typeToken, recipe);
-        return recipe;
+        FunctionRecipe existing = membersInjectionRecipeCache.putIfAbsent(typeToken, recipe);
+        return existing != null ? existing : recipe;
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
@@ -107,6 +110,11 @@ public abstract class MembersInjectorCreationRuleBase implements CreationRule {
                     return wrappedInjectorType;
                 }
 
+                @Override
+                public CompiledSupplier createInterpreter() {
+                    return () -> wrappedInjector;
+                }
+
             };
         });
     }
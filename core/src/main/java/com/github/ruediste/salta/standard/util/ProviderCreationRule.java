@@ -1,16 +1,20 @@
 package com.github.ruediste.salta.standard.util;
 
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
 
 import com.github.ruediste.salta.core.CompiledSupplier;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.CoreInjector;
 import com.github.ruediste.salta.core.CreationRule;
+import com.github.ruediste.salta.core.KeyLockManager;
 import com.github.ruediste.salta.core.RecipeCreationContext;
 import com.github.ruediste.salta.core.SaltaException;
 import com.github.ruediste.salta.core.compile.MethodCompilationContext;
@@ -19,6 +23,7 @@ import com.github.ruediste.salta.core.compile.SupplierRecipe;
 import com.github.ruediste.salta.matchers.Matcher;
 import com.github.ruediste.salta.standard.DependencyKey;
 import com.github.ruediste.salta.standard.InjectionPoint;
+import com.github.ruediste.salta.standard.config.SingletonScope.SingletonAccessBeforeConstructionFinishedException;
 import com.google.common.reflect.TypeToken;
 
 /**
@@ -45,48 +50,55 @@ public class ProviderCreationRule implements CreationRule {
         ProviderAccessBeforeInstanceCreationFinishedException() {
             super("Attempt to access injected Provider before the instance construction finished (e.g. from construction, injected method or post construct method)");
         }
+
+        ProviderAccessBeforeInstanceCreationFinishedException(Throwable cause) {
+            super("Attempt to access injected Provider before the instance construction finished (e.g. from construction, injected method or post construct method)",
+                    cause);
+        }
     }
 
-    protected static class ProviderImpl implements Supplier<Object> {
-        private volatile CompiledSupplier compiledRecipe;
+    /**
+     * Evaluates the recipe of the dependency of a provider injection point.
+     * Shared by the providers injected into the instances created for the
+     * injection point. The recipe is compiled when first evaluated.
+     */
+    protected static class ProviderTarget {
 
-        private ThreadLocal<Boolean> isGetting = new ThreadLocal<>();
+        private volatile CompiledSupplier compiledRecipe;
 
         private CoreDependencyKey<?> dependency;
 
-        private Object recipeLock;
+        private KeyLockManager lockManager;
 
         private Supplier<CompiledSupplier> compiledRecipeSupplier;
 
-        public ProviderImpl(CoreDependencyKey<?> dependency, Object recipeLock,
+        public ProviderTarget(CoreDependencyKey<?> dependency, KeyLockManager lockManager,
                 Supplier<CompiledSupplier> compiledRecipeSupplier) {
             this.dependency = dependency;
-            this.recipeLock = recipeLock;
+            this.lockManager = lockManager;
             this.compiledRecipeSupplier = compiledRecipeSupplier;
         }
 
-        @Override
         public Object get() {
-            if (isGetting.get() != null)
-                throw new ProviderAccessBeforeInstanceCreationFinishedException();
-            isGetting.set(true);
-
             try {
-                if (compiledRecipe == null) {
-                    synchronized (recipeLock) {
+                CompiledSupplier recipe = compiledRecipe;
+                if (recipe == null) {
+                    lockManager.withLockIfPossible(this, () -> {
                         if (compiledRecipe == null) {
                             compiledRecipe = compiledRecipeSupplier.get();
                         }
-                    }
+                        return null;
+                    });
+                    recipe = compiledRecipe;
                 }
 
-                return compiledRecipe.get();
+                return recipe.get();
+            } catch (SingletonAccessBeforeConstructionFinishedException e) {
+                throw new ProviderAccessBeforeInstanceCreationFinishedException(e);
             } catch (SaltaException e) {
                 throw e;
             } catch (Throwable e) {
                 throw new SaltaException("Error while getting instance from provider for key " + dependency, e);
-            } finally {
-                isGetting.remove();
             }
         }
 
@@ -96,6 +108,88 @@ public class ProviderCreationRule implements CreationRule {
         }
     }
 
+    /**
+     * Provider injected into a single instance. Until the first get()
+     * returns, typically while the instance is being constructed, the target
+     * is registered in a per thread guard while it is evaluated. Access to the
+     * same target from the same thread during that time is detected and
+     * reported as {@link ProviderAccessBeforeInstanceCreationFinishedException}.
+     * Afterwards, the target is evaluated directly.
+     */
+    protected static class ProviderImpl implements Supplier<Object> {
+
+        /**
+         * Targets evaluated by guarded providers on the current thread. Only
+         * set while a guarded get() is in progress.
+         */
+        private static final ThreadLocal<ActiveTargets> activeTargets = new ThreadLocal<>();
+
+        private static class ActiveTargets {
+            private ProviderTarget[] targets = new ProviderTarget[8];
+            private int depth;
+
+            boolean contains(ProviderTarget target) {
+                for (int i = 0; i < depth; i++)
+                    if (targets[i] == target)
+                        return true;
+                return false;
+            }
+
+            void push(ProviderTarget target) {
+                if (depth == targets.length)
+                    targets = Arrays.copyOf(targets, depth * 2);
+                targets[depth++] = target;
+            }
+
+            /**
+             * @return true if no target remains
+             */
+            boolean pop() {
+                targets[--depth] = null;
+                return depth == 0;
+            }
+        }
+
+        private final ProviderTarget target;
+
+        /**
+         * Cleared once the first get() returned. Threads seeing a stale value
+         * just take the guarded path.
+         */
+        private boolean guarded = true;
+
+        public ProviderImpl(ProviderTarget target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object get() {
+            if (!guarded)
+                return target.get();
+
+            ActiveTargets active = activeTargets.get();
+            if (active == null) {
+                active = new ActiveTargets();
+                activeTargets.set(active);
+            } else if (active.contains(target))
+                throw new ProviderAccessBeforeInstanceCreationFinishedException();
+
+            active.push(target);
+            try {
+                return target.get();
+            } finally {
+                if (active.pop())
+                    activeTargets.remove();
+                guarded = false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return target.toString();
+        }
+    }
+
     /**
      * Create a new instance
      * 
@@ -114,7 +208,6 @@ public class ProviderCreationRule implements CreationRule {
     }
 
     @Override
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public Optional<Function<RecipeCreationContext, SupplierRecipe>> apply(CoreDependencyKey<?> key,
             CoreInjector injector) {
 
@@ -147,20 +240,26 @@ public class ProviderCreationRule implements CreationRule {
                 @Override
                 public SupplierRecipe apply(RecipeCreationContext ctx) {
 
-                    // create and wrap provider instance
+                    // every created instance gets its own provider, sharing
+                    // the target
                     RecipeCompiler compiler = ctx.getCompiler();
-                    ProviderImpl provider = new ProviderImpl(key, ctx.getRecipeLock(),
+                    ProviderTarget target = new ProviderTarget(key, ctx.getLockManager(),
                             () -> compiler.compileSupplier(innerRecipe.get().apply(ctx)));
-
-                    Object wrappedProvider = wrapper.apply(key, provider);
+                    Supplier<Object> providerFactory = () -> wrapper.apply(key, new ProviderImpl(target));
 
                     // create creation recipe
                     SupplierRecipe creationRecipe = new SupplierRecipe() {
 
                         @Override
                         protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
-                            ctx.addFieldAndLoad((Class) providerType, wrappedProvider);
-                            return providerType;
+                            ctx.addFieldAndLoad(Supplier.class, providerFactory);
+                            mv.invokeInterface(Type.getType(Supplier.class), Method.getMethod("Object get()"));
+                            return Object.class;
+                        }
+
+                        @Override
+                        public CompiledSupplier createInterpreter() {
+                            return providerFactory::get;
                         }
                     };
 
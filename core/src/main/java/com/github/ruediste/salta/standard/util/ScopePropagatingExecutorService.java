@@ -0,0 +1,99 @@
+package com.github.ruediste.salta.standard.util;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executor service running the submitted tasks in the scope state which is
+ * active when they are submitted. Created by
+ * {@link SimpleScopeManagerBase#wrap(ExecutorService)}.
+ */
+class ScopePropagatingExecutorService implements ExecutorService {
+
+	private final SimpleScopeManagerBase manager;
+	private final ExecutorService delegate;
+
+	ScopePropagatingExecutorService(SimpleScopeManagerBase manager, ExecutorService delegate) {
+		this.manager = manager;
+		this.delegate = delegate;
+	}
+
+	private <T> List<Callable<T>> captureState(Collection<? extends Callable<T>> tasks) {
+		return tasks.stream().map(manager::captureState).collect(toList());
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		delegate.execute(manager.captureState(command));
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		return delegate.submit(manager.captureState(task));
+	}
+
+	@Override
+	public <T> Future<T> submit(Runnable task, T result) {
+		return delegate.submit(manager.captureState(task), result);
+	}
+
+	@Override
+	public Future<?> submit(Runnable task) {
+		return delegate.submit(manager.captureState(task));
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+		return delegate.invokeAll(captureState(tasks));
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return delegate.invokeAll(captureState(tasks), timeout, unit);
+	}
+
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+		return delegate.invokeAny(captureState(tasks));
+	}
+
+	@Override
+	public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return delegate.invokeAny(captureState(tasks), timeout, unit);
+	}
+}
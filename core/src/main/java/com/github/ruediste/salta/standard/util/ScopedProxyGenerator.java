@@ -0,0 +1,244 @@
+package com.github.ruediste.salta.standard.util;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+import static org.objectweb.asm.Opcodes.ACC_VARARGS;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+
+import com.github.ruediste.salta.core.SaltaException;
+import com.github.ruediste.salta.core.compile.RecipeCompiler.CompilerClassLoader;
+import com.github.ruediste.salta.standard.util.SimpleProxyScopeManager.ScopedObjectSupplier;
+
+/**
+ * Generates the proxy classes used by the {@link SimpleProxyScopeManager}. A
+ * proxy class extends or implements the proxied type and delegates each
+ * overridable method to the instance returned by the
+ * {@link ScopedObjectSupplier} passed to its constructor.
+ *
+ * <p>
+ * The proxy classes are generated once per proxied type and shared by all
+ * bindings and injectors. If possible, a proxy class is defined in the package
+ * of the proxied type using {@link MethodHandles#privateLookupIn(Class, Lookup)}
+ * , which requires the package to be open to Salta. Otherwise, only public
+ * types can be proxied, and the proxy is defined by a separate class loader.
+ * No instrumentation agent is required.
+ * </p>
+ */
+class ScopedProxyGenerator {
+
+	private static final String DELEGATE_FIELD_NAME = "salta$delegate";
+
+	private static final AtomicInteger classNumber = new AtomicInteger();
+
+	private static final ClassValue<Class<?>> proxyClasses = new ClassValue<Class<?>>() {
+		@Override
+		protected Class<?> computeValue(Class<?> type) {
+			return createProxyClass(type);
+		}
+	};
+
+	private ScopedProxyGenerator() {
+	}
+
+	/**
+	 * Create a proxy for the given type, delegating to the instances provided
+	 * by the supplier.
+	 */
+	static Object createProxy(Class<?> type, ScopedObjectSupplier supplier) {
+		Class<?> proxyClass = proxyClasses.get(type);
+		try {
+			return proxyClass.getConstructor(ScopedObjectSupplier.class).newInstance(supplier);
+		} catch (Exception e) {
+			throw new SaltaException("Error while instantiating scoped proxy for " + type, e);
+		}
+	}
+
+	private static Class<?> createProxyClass(Class<?> type) {
+		if (type.isPrimitive() || type.isArray() || Modifier.isFinal(type.getModifiers()))
+			throw new SaltaException("Cannot create scoped proxy for " + type);
+
+		Lookup lookup;
+		try {
+			lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+		} catch (IllegalAccessException | SecurityException e) {
+			lookup = null;
+		}
+		if (lookup == null && !Modifier.isPublic(type.getModifiers()))
+			throw new SaltaException("Cannot create scoped proxy for " + type
+					+ ". Either make it public or open its package to Salta");
+
+		String name;
+		ClassLoader proxyLoader;
+		if (lookup != null) {
+			name = type.getName() + "$$SaltaScopedProxy" + classNumber.incrementAndGet();
+			proxyLoader = type.getClassLoader();
+		} else {
+			name = "salta.ScopedProxy" + classNumber.incrementAndGet();
+			proxyLoader = new CompilerClassLoader(
+					type.getClassLoader() == null ? ScopedProxyGenerator.class.getClassLoader()
+							: type.getClassLoader());
+		}
+
+		byte[] bytes = generate(type, name, lookup != null);
+		try {
+			if (lookup != null)
+				return lookup.defineClass(bytes);
+			else
+				return ((CompilerClassLoader) proxyLoader).defineClass(name, bytes);
+		} catch (IllegalAccessException | LinkageError e) {
+			throw new SaltaException("Error while defining scoped proxy for " + type, e);
+		}
+	}
+
+	private static byte[] generate(Class<?> type, String name, boolean samePackage) {
+		Type proxyType = Type.getObjectType(name.replace('.', '/'));
+		Type supplierType = Type.getType(ScopedObjectSupplier.class);
+		Type superType = Type.getType(type.isInterface() ? Object.class : type);
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_8, ACC_PUBLIC + ACC_FINAL + ACC_SUPER + ACC_SYNTHETIC, proxyType.getInternalName(), null,
+				superType.getInternalName(),
+				type.isInterface() ? new String[] { Type.getInternalName(type) } : null);
+		cw.visitField(ACC_PRIVATE + ACC_FINAL, DELEGATE_FIELD_NAME, supplierType.getDescriptor(), null, null)
+				.visitEnd();
+
+		// constructor. The delegate is set before the super constructor is
+		// called, such that methods called by the super constructor are
+		// delegated as well
+		{
+			Constructor<?> superConstructor;
+			try {
+				superConstructor = type.isInterface() ? Object.class.getConstructor()
+						: type.getDeclaredConstructor();
+			} catch (NoSuchMethodException e) {
+				throw new SaltaException("Cannot create scoped proxy for " + type + ", no no-args constructor found");
+			}
+			if (!isAccessible(superConstructor.getModifiers(), superConstructor.getDeclaringClass(), type,
+					samePackage))
+				throw new SaltaException("Cannot create scoped proxy for " + type + ", no-args constructor of "
+						+ superConstructor.getDeclaringClass() + " is not accessible");
+			GeneratorAdapter mv = new GeneratorAdapter(ACC_PUBLIC,
+					new org.objectweb.asm.commons.Method("<init>", Type.VOID_TYPE, new Type[] { supplierType }),
+					null, null, cw);
+			mv.visitCode();
+			mv.loadThis();
+			mv.loadArg(0);
+			mv.putField(proxyType, DELEGATE_FIELD_NAME, supplierType);
+			mv.loadThis();
+			mv.invokeConstructor(superType, new org.objectweb.asm.commons.Method("<init>", "()V"));
+			mv.returnValue();
+			mv.endMethod();
+		}
+
+		Type ownerType = Type.getType(type);
+		for (Method method : getProxiedMethods(type, samePackage)) {
+			org.objectweb.asm.commons.Method asmMethod = org.objectweb.asm.commons.Method.getMethod(method);
+			int access = method.getModifiers() & (ACC_PUBLIC | ACC_VARARGS);
+			if (Modifier.isProtected(method.getModifiers()))
+				access |= Modifier.PROTECTED;
+			Type[] exceptions = new Type[method.getExceptionTypes().length];
+			for (int i = 0; i < exceptions.length; i++)
+				exceptions[i] = Type.getType(method.getExceptionTypes()[i]);
+
+			GeneratorAdapter mv = new GeneratorAdapter(access, asmMethod, null, exceptions, cw);
+			mv.visitCode();
+			mv.loadThis();
+			mv.getField(proxyType, DELEGATE_FIELD_NAME, supplierType);
+			mv.invokeVirtual(supplierType,
+					new org.objectweb.asm.commons.Method("get", Type.getType(Object.class), new Type[] {}));
+			mv.checkCast(ownerType);
+			mv.loadArgs();
+			if (type.isInterface())
+				mv.invokeInterface(ownerType, asmMethod);
+			else
+				mv.invokeVirtual(ownerType, asmMethod);
+			mv.returnValue();
+			mv.endMethod();
+		}
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Determine the methods to be overridden by the proxy. Methods which are
+	 * final in the most specific declaration are skipped, as well as methods
+	 * which cannot be invoked by the proxy.
+	 */
+	private static List<Method> getProxiedMethods(Class<?> type, boolean samePackage) {
+		// process the superclasses first, since methods of classes take
+		// precedence over default methods of interfaces
+		List<Class<?>> classes = new ArrayList<>();
+		Deque<Class<?>> interfaces = new ArrayDeque<>();
+		if (type.isInterface()) {
+			classes.add(Object.class);
+			interfaces.add(type);
+		} else
+			for (Class<?> cls = type; cls != null; cls = cls.getSuperclass()) {
+				classes.add(cls);
+				interfaces.addAll(Arrays.asList(cls.getInterfaces()));
+			}
+		while (!interfaces.isEmpty()) {
+			Class<?> iface = interfaces.removeFirst();
+			if (!classes.contains(iface)) {
+				classes.add(iface);
+				interfaces.addAll(Arrays.asList(iface.getInterfaces()));
+			}
+		}
+
+		Set<String> seen = new HashSet<>();
+		List<Method> result = new ArrayList<>();
+		for (Class<?> cls : classes) {
+			for (Method method : cls.getDeclaredMethods()) {
+				int modifiers = method.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers))
+					continue;
+				if (!seen.add(method.getName() + Type.getMethodDescriptor(method)))
+					continue;
+				if (Modifier.isFinal(modifiers) || "finalize".equals(method.getName())
+						&& method.getParameterCount() == 0)
+					continue;
+				if (!isAccessible(modifiers, cls, type, samePackage))
+					continue;
+				result.add(method);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Determine if a member with the given modifiers can be overridden and
+	 * invoked by the proxy. Non-public members are only accessible if the proxy
+	 * is defined in the package of the proxied type, and if they are declared
+	 * in that package as well.
+	 */
+	private static boolean isAccessible(int modifiers, Class<?> declaringClass, Class<?> type,
+			boolean samePackage) {
+		if (Modifier.isPublic(modifiers))
+			return true;
+		if (Modifier.isPrivate(modifiers) || !samePackage)
+			return false;
+		return declaringClass.getClassLoader() == type.getClassLoader()
+				&& declaringClass.getPackageName().equals(type.getPackageName());
+	}
+}
@@ -0,0 +1,137 @@
+package com.github.ruediste.salta.standard.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import com.github.ruediste.salta.core.SaltaException;
+
+/**
+ * Variant of the {@link SimpleScopeManager} keeping the current scope state in
+ * a {@code java.lang.ScopedValue}. Enter a scope using
+ * {@link #inScopeDo(ScopeState, Runnable)}:
+ *
+ * <pre>
+ * <code>
+ * scopeManager.inScopeDo(scopeManager.createFreshState(), () -> {
+ *     // create and access scoped objects
+ * });
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The binding is inherited by the subtasks forked within a
+ * {@code StructuredTaskScope}, and no thread local map entry is created per
+ * thread. Thus this manager is suited for handling each request in a separate
+ * virtual thread. If the subtasks access scoped instances concurrently, use a
+ * {@link ConcurrentScopeState}.
+ * </p>
+ *
+ * <p>
+ * If scoped values are not available on the running JVM, the state is kept in
+ * a thread local, as done by the {@link SimpleScopeManager}. The state set
+ * using {@link #setState(ScopeState)} is always kept in the thread local and
+ * is only visible if no state is bound by
+ * {@link #inScopeDo(ScopeState, Runnable)}.
+ * </p>
+ */
+public class ScopedValueScopeManager extends SimpleScopeManager {
+
+	/**
+	 * Bound instead of null, if a block is run outside of any scope
+	 */
+	private static final Object NO_STATE = new Object();
+
+	private static final MethodHandle newInstance;
+	private static final MethodHandle orElse;
+	private static final MethodHandle where;
+	private static final MethodHandle run;
+
+	static {
+		MethodHandle newInstanceTmp = null;
+		MethodHandle orElseTmp = null;
+		MethodHandle whereTmp = null;
+		MethodHandle runTmp = null;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> scopedValueClass = Class.forName("java.lang.ScopedValue");
+			Class<?> carrierClass = Class.forName("java.lang.ScopedValue$Carrier");
+			newInstanceTmp = lookup.findStatic(scopedValueClass, "newInstance", MethodType.methodType(scopedValueClass))
+					.asType(MethodType.methodType(Object.class));
+			orElseTmp = lookup
+					.findVirtual(scopedValueClass, "orElse", MethodType.methodType(Object.class, Object.class))
+					.asType(MethodType.methodType(Object.class, Object.class, Object.class));
+			whereTmp = lookup
+					.findStatic(scopedValueClass, "where",
+							MethodType.methodType(carrierClass, scopedValueClass, Object.class))
+					.asType(MethodType.methodType(Object.class, Object.class, Object.class));
+			runTmp = lookup.findVirtual(carrierClass, "run", MethodType.methodType(void.class, Runnable.class))
+					.asType(MethodType.methodType(void.class, Object.class, Runnable.class));
+
+			// fails if scoped values are a preview feature which is not
+			// enabled
+			Object probe = (Object) newInstanceTmp.invokeExact();
+			Object unused = (Object) orElseTmp.invokeExact(probe, (Object) null);
+		} catch (Throwable t) {
+			newInstanceTmp = null;
+		}
+		newInstance = newInstanceTmp;
+		orElse = newInstanceTmp == null ? null : orElseTmp;
+		where = newInstanceTmp == null ? null : whereTmp;
+		run = newInstanceTmp == null ? null : runTmp;
+	}
+
+	/**
+	 * The {@code ScopedValue} holding the current state, or null if scoped
+	 * values are not available
+	 */
+	private final Object scopedValue;
+
+	public ScopedValueScopeManager(String scopeName) {
+		super(scopeName);
+		try {
+			scopedValue = newInstance == null ? null : (Object) newInstance.invokeExact();
+		} catch (Throwable t) {
+			throw new SaltaException("Error while creating scoped value", t);
+		}
+	}
+
+	/**
+	 * Determine if scoped values are available on the running JVM. If not, the
+	 * scope state is kept in a thread local.
+	 */
+	public static boolean isScopedValueAvailable() {
+		return newInstance != null;
+	}
+
+	@Override
+	protected ScopeState getCurrentState() {
+		if (scopedValue != null) {
+			Object state;
+			try {
+				state = (Object) orElse.invokeExact(scopedValue, (Object) null);
+			} catch (Throwable t) {
+				throw new SaltaException("Error while reading scoped value", t);
+			}
+			if (state != null)
+				return state == NO_STATE ? null : (ScopeState) state;
+		}
+		return super.getCurrentState();
+	}
+
+	@Override
+	public void inScopeDo(ScopeState state, Runnable runnable) {
+		if (scopedValue == null) {
+			super.inScopeDo(state, runnable);
+			return;
+		}
+		try {
+			Object carrier = (Object) where.invokeExact(scopedValue, state == null ? NO_STATE : (Object) state);
+			run.invokeExact(carrier, runnable);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new SaltaException("Error while running in scope " + scopeName, t);
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package com.github.ruediste.salta.standard.util;
 
-import java.util.Map;
 import java.util.function.Supplier;
 
 import com.github.ruediste.salta.core.Binding;
@@ -45,17 +44,8 @@ public class SimpleScopeManager extends SimpleScopeManagerBase {
     @Override
     public Supplier<Object> scope(Supplier<Object> supplier, Binding binding, CoreDependencyKey<?> requestedKey) {
 
-        return () -> {
-            Map<Binding, Object> scopedObjects = tryGetValueMap().orElseThrow(
-                    () -> new RuntimeException("Cannot access " + requestedKey + " outside of scope " + scopeName));
-            if (!scopedObjects.containsKey(binding)) {
-                Object current = supplier.get();
-                scopedObjects.put(binding, current);
-                return current;
-            } else
-                return scopedObjects.get(binding);
-
-        };
+        int ordinal = getOrdinal(binding);
+        return () -> getState(requestedKey).get(ordinal, supplier);
     }
 
 }
\ No newline at end of file
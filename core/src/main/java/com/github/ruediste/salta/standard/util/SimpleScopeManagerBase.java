@@ -1,28 +1,486 @@
 package com.github.ruediste.salta.standard.util;
 
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.KeyLockManager;
+import com.github.ruediste.salta.core.KeyLockManager.LockCycleDetectedException;
+import com.github.ruediste.salta.core.SaltaException;
 import com.github.ruediste.salta.standard.ScopeImpl.ScopeHandler;
-import com.google.common.collect.Maps;
 
+/**
+ * Base class for scope managers keeping the scoped instances in a thread local
+ * {@link ScopeState}.
+ *
+ * <p>
+ * Each scoped binding is assigned a dense ordinal when its recipe is created
+ * (see {@link #getOrdinal(Binding)}). The scope state stores the instances in
+ * an array indexed by the ordinal, thus accessing a scoped instance does not
+ * require hashing the binding.
+ * </p>
+ */
 public abstract class SimpleScopeManagerBase implements ScopeHandler {
 
 	protected final ThreadLocal<ScopeState> currentState = new ThreadLocal<>();
 	protected final String scopeName;
 
+	/**
+	 * Ordinals of the bindings. The bindings are referenced weakly, such that
+	 * the scope manager does not keep the bindings of discarded injectors
+	 * reachable. Ordinals are not reused. Guarded by {@link #ordinalLock}
+	 */
+	private final Map<Binding, Integer> ordinals = new WeakHashMap<>();
+
+	/**
+	 * Bindings by ordinal, referenced weakly. Grown geometrically, guarded by
+	 * {@link #ordinalLock}
+	 */
+	private WeakReference<Binding>[] bindings = newBindings(16);
+	private int bindingCount;
+	private final ReentrantLock ordinalLock = new ReentrantLock();
+
+	/**
+	 * Stored in the slots of scoped instances which are null
+	 */
+	private static final Object NULL = new Object();
+
 	public SimpleScopeManagerBase(String scopeName) {
 		this.scopeName = scopeName;
 	}
 
+	/**
+	 * Instances of a scope, stored in slots indexed by the ordinals of the
+	 * bindings. Not thread safe, use a {@link ConcurrentScopeState} if the
+	 * state is accessed by multiple threads.
+	 */
 	public static class ScopeState {
-		Map<Binding, Object> data = Maps.newHashMap();
+		final SimpleScopeManagerBase manager;
+		private Object[] slots;
+		private final Map<Binding, Object> data = new ValueMap();
+
+		ScopeState(SimpleScopeManagerBase manager) {
+			this(manager, manager.getBindingCount());
+		}
+
+		ScopeState(SimpleScopeManagerBase manager, int capacity) {
+			this.manager = manager;
+			slots = new Object[capacity];
+		}
+
+		/**
+		 * Return the instance in the slot, or null if the slot is empty
+		 */
+		Object getSlot(int ordinal) {
+			Object[] tmp = slots;
+			return ordinal < tmp.length ? tmp[ordinal] : null;
+		}
+
+		/**
+		 * Set the slot and return the previous content
+		 */
+		Object setSlot(int ordinal, Object value) {
+			if (ordinal >= slots.length)
+				slots = Arrays.copyOf(slots, Math.max(ordinal + 1, 2 * slots.length));
+			Object old = slots[ordinal];
+			slots[ordinal] = value;
+			return old;
+		}
+
+		/**
+		 * Run a task submitted by the given thread to an executor wrapped by
+		 * the scope manager, in the thread executing the task
+		 */
+		void runForked(Thread submitter, Runnable task) {
+			task.run();
+		}
+
+		/**
+		 * Return an upper bound of the ordinals of the non-empty slots
+		 */
+		int slotCount() {
+			return slots.length;
+		}
+
+		/**
+		 * Return the instance stored for the ordinal. If there is none, the
+		 * instance is created using the supplier and stored.
+		 */
+		Object get(int ordinal, Supplier<Object> supplier) {
+			Object value = getSlot(ordinal);
+			if (value == null) {
+				value = supplier.get();
+				setSlot(ordinal, value == null ? NULL : value);
+				return value;
+			}
+			return value == NULL ? null : value;
+		}
+
+		/**
+		 * Map view of the slots
+		 */
+		private class ValueMap extends AbstractMap<Binding, Object> {
+
+			@Override
+			public Object get(Object key) {
+				Object value = getSlot(key);
+				return value == NULL ? null : value;
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return getSlot(key) != null;
+			}
+
+			private Object getSlot(Object key) {
+				Integer ordinal = manager.findOrdinal(key);
+				return ordinal == null ? null : ScopeState.this.getSlot(ordinal);
+			}
+
+			@Override
+			public Object put(Binding key, Object value) {
+				Object old = setSlot(manager.getOrdinal(key), value == null ? NULL : value);
+				return old == NULL ? null : old;
+			}
+
+			@Override
+			public Object remove(Object key) {
+				Integer ordinal = manager.findOrdinal(key);
+				if (ordinal == null)
+					return null;
+				if (ScopeState.this.getSlot(ordinal) == null)
+					return null;
+				Object old = setSlot(ordinal, null);
+				return old == NULL ? null : old;
+			}
+
+			@Override
+			public Set<Entry<Binding, Object>> entrySet() {
+				return new AbstractSet<Entry<Binding, Object>>() {
+
+					@Override
+					public Iterator<Entry<Binding, Object>> iterator() {
+						return new Iterator<Entry<Binding, Object>>() {
+							private int next = advance(0);
+							private int last = -1;
+
+							private int advance(int i) {
+								while (i < slotCount() && ScopeState.this.getSlot(i) == null)
+									i++;
+								return i;
+							}
+
+							@Override
+							public boolean hasNext() {
+								return next < slotCount();
+							}
+
+							@Override
+							public Entry<Binding, Object> next() {
+								if (!hasNext())
+									throw new NoSuchElementException();
+								last = next;
+								Object value = ScopeState.this.getSlot(last);
+								next = advance(next + 1);
+								return new SimpleImmutableEntry<>(manager.getBinding(last), value == NULL ? null : value);
+							}
+
+							@Override
+							public void remove() {
+								if (last < 0)
+									throw new IllegalStateException();
+								setSlot(last, null);
+								last = -1;
+							}
+						};
+					}
+
+					@Override
+					public int size() {
+						int size = 0;
+						for (int i = 0; i < slotCount(); i++)
+							if (ScopeState.this.getSlot(i) != null && manager.getBinding(i) != null)
+								size++;
+						return size;
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * Thread safe {@link ScopeState}. Use it if the scoped instances are
+	 * accessed by multiple threads, for example when fanning out the handling
+	 * of a request using an executor obtained from
+	 * {@link SimpleScopeManagerBase#wrap(ExecutorService)}.
+	 *
+	 * <p>
+	 * Exactly one instance is created per binding. If multiple threads request
+	 * an instance which is not created yet, one of them creates it while the
+	 * others wait. Only the threads requesting the same binding wait for each
+	 * other, there is no lock for the whole state.
+	 * </p>
+	 *
+	 * <p>
+	 * Waiting is done using a {@link KeyLockManager}, thus if threads creating
+	 * instances wait for each other in a circle, a
+	 * {@link LockCycleDetectedException} is thrown instead of deadlocking. An
+	 * instance requested by a task forked by the thread creating it (using an
+	 * executor wrapped by the scope manager) fails as well, since the creator
+	 * typically waits for the task.
+	 * </p>
+	 */
+	public static class ConcurrentScopeState extends ScopeState {
+		private static final int CHUNK_SIZE = 16;
+
+		/**
+		 * Slots are stored in chunks. To grow, the chunk array is replaced by
+		 * a larger one containing the existing chunks, thus no writes to the
+		 * existing slots are lost.
+		 */
+		private final AtomicReference<AtomicReferenceArray<Object>[]> chunks = new AtomicReference<>(
+				newChunks(0));
+
+		/**
+		 * The creating thread holds the lock of the {@link Creation} while
+		 * creating the instance. Other threads wait for the lock.
+		 */
+		private final KeyLockManager lockManager = new KeyLockManager();
+
+		/**
+		 * Threads running forked tasks, mapped to the threads which submitted
+		 * the tasks
+		 */
+		private final ConcurrentHashMap<Thread, Thread> forkedBy = new ConcurrentHashMap<>();
+
+		/**
+		 * Stored in a slot while the instance is created
+		 */
+		private static class Creation {
+			final Binding binding;
+			final Thread thread = Thread.currentThread();
+
+			Creation(Binding binding) {
+				this.binding = binding;
+			}
+
+			@Override
+			public String toString() {
+				return "creation of scoped instance of " + binding;
+			}
+		}
+
+		/**
+		 * Returned by the creating thread if another thread started the
+		 * creation in the meantime
+		 */
+		private static final Object RETRY = new Object();
+
+		ConcurrentScopeState(SimpleScopeManagerBase manager) {
+			super(manager, 0);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static AtomicReferenceArray<Object>[] newChunks(int count) {
+			return new AtomicReferenceArray[count];
+		}
+
+		private AtomicReferenceArray<Object> getChunk(int ordinal, boolean create) {
+			int index = ordinal / CHUNK_SIZE;
+			while (true) {
+				AtomicReferenceArray<Object>[] current = chunks.get();
+				if (index < current.length)
+					return current[index];
+				if (!create)
+					return null;
+				AtomicReferenceArray<Object>[] grown = Arrays.copyOf(current, index + 1);
+				for (int i = current.length; i < grown.length; i++)
+					grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+				chunks.compareAndSet(current, grown);
+			}
+		}
+
+		@Override
+		Object getSlot(int ordinal) {
+			AtomicReferenceArray<Object> chunk = getChunk(ordinal, false);
+			if (chunk == null)
+				return null;
+			Object value = chunk.get(ordinal % CHUNK_SIZE);
+			return value instanceof Creation ? null : value;
+		}
+
+		/**
+		 * Set the slot, for example through the value map. If the instance is
+		 * being created, wait for the creation to finish first, such that the
+		 * creation is not replaced.
+		 */
+		@Override
+		Object setSlot(int ordinal, Object value) {
+			AtomicReferenceArray<Object> chunk = getChunk(ordinal, true);
+			int index = ordinal % CHUNK_SIZE;
+			while (true) {
+				Object current = chunk.get(index);
+				if (current instanceof Creation) {
+					awaitCreation((Creation) current);
+					continue;
+				}
+				if (chunk.compareAndSet(index, current, value))
+					return current;
+			}
+		}
+
+		@Override
+		int slotCount() {
+			return chunks.get().length * CHUNK_SIZE;
+		}
+
+		@Override
+		void runForked(Thread submitter, Runnable task) {
+			Thread current = Thread.currentThread();
+			if (current == submitter) {
+				// run by the submitting thread, for example when rejected
+				task.run();
+				return;
+			}
+			Thread previous = forkedBy.put(current, submitter);
+			try {
+				task.run();
+			} finally {
+				if (previous == null)
+					forkedBy.remove(current);
+				else
+					forkedBy.put(current, previous);
+			}
+		}
+
+		@Override
+		Object get(int ordinal, Supplier<Object> supplier) {
+			AtomicReferenceArray<Object> chunk = getChunk(ordinal, true);
+			int index = ordinal % CHUNK_SIZE;
+			while (true) {
+				Object value = chunk.get(index);
+				if (value == null) {
+					Creation creation = new Creation(manager.getBinding(ordinal));
+					// acquire the lock before publishing the creation, such that
+					// waiting threads block until the creation is finished
+					Object result = lockManager.withLock(creation, () -> {
+						if (!chunk.compareAndSet(index, null, creation))
+							return RETRY;
+						try {
+							Object created = supplier.get();
+							chunk.compareAndSet(index, creation, created == null ? NULL : created);
+							return created;
+						} finally {
+							// on failure, let the next thread try again
+							chunk.compareAndSet(index, creation, null);
+						}
+					});
+					if (result == RETRY)
+						continue;
+					return result;
+				}
+				if (value instanceof Creation) {
+					awaitCreation((Creation) value);
+					continue;
+				}
+				return value == NULL ? null : value;
+			}
+		}
+
+		private void awaitCreation(Creation creation) {
+			Thread current = Thread.currentThread();
+			if (creation.thread == current)
+				throw new SaltaException("Scoped instance of " + creation.binding
+						+ " requested while it is being created in scope " + manager.scopeName);
+			for (Thread t = forkedBy.get(current); t != null; t = forkedBy.get(t))
+				if (t == creation.thread)
+					throw new SaltaException("Scoped instance of " + creation.binding
+							+ " requested by a task forked while it is being created in scope "
+							+ manager.scopeName);
+
+			// wait for the creation to finish
+			lockManager.withLock(creation, () -> null);
+		}
+	}
 
-		ScopeState() {
+	/**
+	 * Return the ordinal of the binding, assigning the next free ordinal if the
+	 * binding has none yet. Call when creating the recipe of a binding, not
+	 * when accessing the instance.
+	 */
+	protected int getOrdinal(Binding binding) {
+		ordinalLock.lock();
+		try {
+			Integer ordinal = ordinals.get(binding);
+			if (ordinal == null) {
+				ordinal = bindingCount++;
+				if (ordinal == bindings.length)
+					bindings = Arrays.copyOf(bindings, 2 * bindings.length);
+				bindings[ordinal] = new WeakReference<>(binding);
+				ordinals.put(binding, ordinal);
+			}
+			return ordinal;
+		} finally {
+			ordinalLock.unlock();
 		}
 	}
 
+	/**
+	 * Return the ordinal of the binding, or null if it has none
+	 */
+	private Integer findOrdinal(Object binding) {
+		ordinalLock.lock();
+		try {
+			return ordinals.get(binding);
+		} finally {
+			ordinalLock.unlock();
+		}
+	}
+
+	/**
+	 * Return the binding of an ordinal, or null if the binding has been
+	 * collected
+	 */
+	private Binding getBinding(int ordinal) {
+		ordinalLock.lock();
+		try {
+			WeakReference<Binding> ref = ordinal < bindingCount ? bindings[ordinal] : null;
+			return ref == null ? null : ref.get();
+		} finally {
+			ordinalLock.unlock();
+		}
+	}
+
+	private int getBindingCount() {
+		ordinalLock.lock();
+		try {
+			return bindingCount;
+		} finally {
+			ordinalLock.unlock();
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static WeakReference<Binding>[] newBindings(int length) {
+		return new WeakReference[length];
+	}
+
 	public void inScopeDo(ScopeState state, Runnable runnable) {
 		ScopeState old = setState(state);
 		try {
@@ -32,13 +490,17 @@ public abstract class SimpleScopeManagerBase implements ScopeHandler {
 		}
 	}
 
+	/**
+	 * Return a map view of the instances in the current scope, if a scope is
+	 * active
+	 */
 	public Optional<Map<Binding, Object>> tryGetValueMap() {
-		return Optional.ofNullable(currentState.get()).map(d -> d.data);
+		return Optional.ofNullable(getCurrentState()).map(d -> d.data);
 	}
 
 	/**
 	 * Return the current value map.
-	 * 
+	 *
 	 * @throws RuntimeException
 	 *             if no scope is active
 	 */
@@ -47,9 +509,22 @@ public abstract class SimpleScopeManagerBase implements ScopeHandler {
 				.orElseThrow(() -> new RuntimeException("Cannot access value map outside of scope " + scopeName));
 	}
 
+	/**
+	 * Return the current scope state.
+	 *
+	 * @throws RuntimeException
+	 *             if no scope is active
+	 */
+	protected ScopeState getState(Object requestedKey) {
+		ScopeState state = getCurrentState();
+		if (state == null)
+			throw new RuntimeException("Cannot access " + requestedKey + " outside of scope " + scopeName);
+		return state;
+	}
+
 	/**
 	 * Set a fresh scope state.
-	 * 
+	 *
 	 * @return the old scope state
 	 */
 	public ScopeState setFreshState() {
@@ -57,16 +532,87 @@ public abstract class SimpleScopeManagerBase implements ScopeHandler {
 	}
 
 	public ScopeState createFreshState() {
-		return new ScopeState();
+		return new ScopeState(this);
+	}
+
+	/**
+	 * Create a fresh, thread safe scope state
+	 */
+	public ConcurrentScopeState createConcurrentState() {
+		return new ConcurrentScopeState(this);
+	}
+
+	/**
+	 * Wrap an executor such that the tasks run in the scope state which is
+	 * active when they are submitted. Use a {@link ConcurrentScopeState} if the
+	 * tasks access scoped instances.
+	 */
+	public Executor wrap(Executor executor) {
+		return task -> executor.execute(captureState(task));
+	}
+
+	/**
+	 * Wrap an executor service such that the tasks run in the scope state
+	 * which is active when they are submitted. Use a
+	 * {@link ConcurrentScopeState} if the tasks access scoped instances.
+	 */
+	public ExecutorService wrap(ExecutorService executor) {
+		return new ScopePropagatingExecutorService(this, executor);
+	}
+
+	/**
+	 * Wrap a task such that it runs in the scope state which is active now.
+	 */
+	public Runnable captureState(Runnable task) {
+		ScopeState state = getCurrentState();
+		Thread submitter = Thread.currentThread();
+		return () -> inScopeDo(state, forked(state, submitter, task));
+	}
+
+	/**
+	 * Wrap a task such that it runs in the scope state which is active now.
+	 */
+	public <T> Callable<T> captureState(Callable<T> task) {
+		ScopeState state = getCurrentState();
+		Thread submitter = Thread.currentThread();
+		return () -> {
+			Object[] result = new Object[1];
+			Exception[] failure = new Exception[1];
+			inScopeDo(state, forked(state, submitter, () -> {
+				try {
+					result[0] = task.call();
+				} catch (Exception e) {
+					failure[0] = e;
+				}
+			}));
+			if (failure[0] != null)
+				throw failure[0];
+			@SuppressWarnings("unchecked")
+			T tmp = (T) result[0];
+			return tmp;
+		};
+	}
+
+	private static Runnable forked(ScopeState state, Thread submitter, Runnable task) {
+		if (state == null)
+			return task;
+		return () -> state.runForked(submitter, task);
+	}
+
+	/**
+	 * Return the current scope state, or null if no scope is active
+	 */
+	protected ScopeState getCurrentState() {
+		return currentState.get();
 	}
 
 	public boolean isScopeActive() {
-		return currentState.get() != null;
+		return getCurrentState() != null;
 	}
 
 	/**
 	 * Set a given scope state
-	 * 
+	 *
 	 * @param state
 	 *            state to set, or null to set to an empty state
 	 * @return the old scope state
@@ -79,4 +625,4 @@ public abstract class SimpleScopeManagerBase implements ScopeHandler {
 			currentState.set(state);
 		return old;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,162 @@
+package com.github.ruediste.salta.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.commons.GeneratorAdapter;
+
+import com.github.ruediste.salta.core.compile.MethodCompilationContext;
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+import com.github.ruediste.salta.standard.DependencyKey;
+
+public class CoreInjectorTest {
+
+    private CoreInjectorConfiguration config;
+    private CoreInjector injector;
+    private CoreDependencyKey<String> key = DependencyKey.of(String.class);
+
+    @Before
+    public void setup() {
+        config = new CoreInjectorConfiguration();
+        config.backgroundCompilationExecutor = Runnable::run;
+        CreationRule rule = (key, injector) -> Optional.of(ctx -> new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, "compiled");
+                return String.class;
+            }
+
+            @Override
+            public CompiledSupplier createInterpreter() {
+                return () -> "interpreted";
+            }
+        });
+        injector = new CoreInjector(config, Collections.singletonList(rule));
+    }
+
+    @Test
+    public void testCompiledImmediately() {
+        assertEquals("compiled", injector.getInstance(key));
+    }
+
+    @Test
+    public void testTieredCompilation() {
+        config.compilationThreshold = 3;
+        assertEquals("interpreted", injector.getInstance(key));
+        assertEquals("interpreted", injector.getInstance(key));
+        assertTrue(injector.getCompiledRecipe(key) instanceof CoreInjector.TieredSupplier);
+
+        // reaching the threshold triggers the compilation
+        assertEquals("compiled", injector.getInstance(key));
+        assertEquals("compiled", injector.getInstance(key));
+        assertFalse(injector.getCompiledRecipe(key) instanceof CoreInjector.TieredSupplier);
+    }
+
+    @Test
+    public void testTieredCompilationFailure() {
+        config.compilationThreshold = 2;
+        List<CoreDependencyKey<?>> failedKeys = new ArrayList<>();
+        config.backgroundCompilationFailureHandler = (key, e) -> {
+            assertTrue(e.getMessage().contains("failed"));
+            failedKeys.add(key);
+        };
+        CreationRule rule = (key, injector) -> Optional.of(ctx -> new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                throw new SaltaException("failed");
+            }
+
+            @Override
+            public CompiledSupplier createInterpreter() {
+                return () -> "interpreted";
+            }
+        });
+        injector = new CoreInjector(config, Collections.singletonList(rule));
+        assertEquals("interpreted", injector.getInstance(key));
+        assertEquals("interpreted", injector.getInstance(key));
+        assertEquals(Collections.singletonList(key), failedKeys);
+
+        // the interpreter is used from now on
+        assertEquals("interpreted", injector.getInstance(key));
+        assertTrue(injector.getCompiledRecipe(key) instanceof CoreInjector.TieredSupplier);
+        assertEquals(1, failedKeys.size());
+    }
+
+    @Test
+    public void testTieredCompilationHeldSupplier() {
+        config.compilationThreshold = 2;
+        Supplier<String> supplier = injector.getInstanceSupplier(key);
+        assertEquals("interpreted", supplier.get());
+        assertEquals("compiled", supplier.get());
+        assertEquals("compiled", supplier.get());
+    }
+
+    @Test
+    public void testResolutionListener() {
+        List<String> events = new ArrayList<>();
+        config.resolutionListeners.add(new ResolutionListener() {
+
+            @Override
+            public void recipeCreationStarted(CoreDependencyKey<?> key) {
+                events.add("recipeCreationStarted " + key.getRawType().getSimpleName());
+            }
+
+            @Override
+            public void recipeCreationFinished(CoreDependencyKey<?> key) {
+                events.add("recipeCreationFinished " + key.getRawType().getSimpleName());
+            }
+
+            @Override
+            public void compilationStarted(SupplierRecipe recipe) {
+                events.add("compilationStarted");
+            }
+
+            @Override
+            public void compilationFinished(SupplierRecipe recipe) {
+                events.add("compilationFinished");
+            }
+        });
+        assertEquals("compiled", injector.getInstance(key));
+        assertEquals("compiled", injector.getInstance(key));
+        assertEquals(Arrays.asList("recipeCreationStarted String", "recipeCreationFinished String",
+                "compilationStarted", "compilationFinished"), events);
+    }
+
+    @Test
+    public void testInstanceHandle() {
+        InstanceHandle<String> handle = injector.getInstanceHandle(key);
+        assertEquals("compiled", handle.get());
+        assertEquals("compiled", handle.get());
+    }
+
+    @Test
+    public void testInstanceHandleCompilesTieredSupplier() {
+        config.compilationThreshold = 3;
+        assertEquals("interpreted", injector.getInstance(key));
+        InstanceHandle<String> handle = injector.getInstanceHandle(key);
+        assertEquals("compiled", handle.get());
+        assertFalse(injector.getCompiledRecipe(key) instanceof CoreInjector.TieredSupplier);
+
+        // reaching the threshold does not compile again
+        assertEquals("compiled", injector.getInstance(key));
+        assertEquals("compiled", injector.getInstance(key));
+    }
+
+    @Test(expected = SaltaException.class)
+    public void testInstanceHandleUnresolvable() {
+        injector = new CoreInjector(config, Collections.emptyList());
+        injector.getInstanceHandle(key);
+    }
+}
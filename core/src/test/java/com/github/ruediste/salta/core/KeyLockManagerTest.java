@@ -0,0 +1,116 @@
+package com.github.ruediste.salta.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.KeyLockManager.LockCycleDetectedException;
+
+public class KeyLockManagerTest {
+
+    private KeyLockManager manager;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        manager = new KeyLockManager();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void reentrant() {
+        assertEquals("foo", manager.withLock("a", () -> manager.withLock("a", () -> "foo")));
+    }
+
+    @Test
+    public void unrelatedKeysConcurrently() throws Exception {
+        CountDownLatch bothInside = new CountDownLatch(2);
+        Future<?> f1 = executor.submit(() -> manager.withLock("a", () -> await(bothInside)));
+        Future<?> f2 = executor.submit(() -> manager.withLock("b", () -> await(bothInside)));
+        assertTrue((Boolean) f1.get(10, TimeUnit.SECONDS));
+        assertTrue((Boolean) f2.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sameKeyExclusive() throws Exception {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        Runnable r = () -> {
+            for (int i = 0; i < 1000; i++)
+                manager.withLock("a", () -> {
+                    maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                    inside.decrementAndGet();
+                    return null;
+                });
+        };
+        Future<?> f1 = executor.submit(r);
+        Future<?> f2 = executor.submit(r);
+        f1.get(10, TimeUnit.SECONDS);
+        f2.get(10, TimeUnit.SECONDS);
+        assertEquals(1, maxInside.get());
+    }
+
+    @Test
+    public void cycleDetected() throws Exception {
+        CountDownLatch bothLocked = new CountDownLatch(2);
+        Future<?> f1 = executor.submit(() -> manager.withLock("a", () -> {
+            await(bothLocked);
+            return manager.withLock("b", () -> "a");
+        }));
+        Future<?> f2 = executor.submit(() -> manager.withLock("b", () -> {
+            await(bothLocked);
+            return manager.withLock("a", () -> "b");
+        }));
+
+        int cycles = 0;
+        for (Future<?> f : new Future<?>[] { f1, f2 }) {
+            try {
+                f.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof LockCycleDetectedException);
+                cycles++;
+            }
+        }
+        assertEquals(1, cycles);
+    }
+
+    @Test
+    public void cycleIgnoredIfPossible() throws Exception {
+        CountDownLatch bothLocked = new CountDownLatch(2);
+        Future<?> f1 = executor.submit(() -> manager.withLockIfPossible("a", () -> {
+            await(bothLocked);
+            return manager.withLockIfPossible("b", () -> "a");
+        }));
+        Future<?> f2 = executor.submit(() -> manager.withLockIfPossible("b", () -> {
+            await(bothLocked);
+            return manager.withLockIfPossible("a", () -> "b");
+        }));
+        assertEquals("a", f1.get(10, TimeUnit.SECONDS));
+        assertEquals("b", f2.get(10, TimeUnit.SECONDS));
+    }
+
+    private boolean await(CountDownLatch latch) {
+        latch.countDown();
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,13 +1,32 @@
 package com.github.ruediste.salta.core.compile;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 
+import com.github.ruediste.salta.core.CompiledSupplier;
+import com.github.ruediste.salta.standard.recipe.FixedConstructorRecipeInstantiator;
+import com.github.ruediste.salta.standard.recipe.FixedFieldRecipeMembersInjector;
+
 public class RecipeCompilerTest {
 
     private RecipeCompiler compiler;
@@ -81,4 +100,340 @@ public class RecipeCompilerTest {
         assertEquals(3, compiler.compileFunction(recipe).get(5));
     }
 
+    @Test
+    public void testConcurrentCompilation() throws Throwable {
+        SupplierRecipe inner = new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                mv.visitInsn(Opcodes.ICONST_3);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+                return Integer.class;
+            }
+
+        };
+
+        // the threshold forces the inner recipe into a separate class
+        SupplierRecipe outer = new SupplierRecipe(1) {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                return inner.compile(ctx);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> {
+                    try {
+                        return compiler.compileSupplier(outer).get();
+                    } catch (Throwable e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            for (Future<Object> result : results)
+                assertEquals(3, result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private static class PrivateTestClass {
+        private int value;
+
+        private PrivateTestClass() {
+        }
+    }
+
+    @Test
+    public void testHiddenClassPrivateAccess() throws Throwable {
+        compiler = new RecipeCompiler(getClass().getClassLoader(), true);
+        SupplierRecipe recipe = new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                try {
+                    Class<?> t = new FixedConstructorRecipeInstantiator(
+                            PrivateTestClass.class.getDeclaredConstructor(), Collections.emptyList()).compile(ctx);
+                    assertTrue(ctx.isFieldAccessible(PrivateTestClass.class.getDeclaredField("value")));
+                    return new FixedFieldRecipeMembersInjector(PrivateTestClass.class.getDeclaredField("value"),
+                            new SupplierRecipe() {
+
+                                @Override
+                                protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                                    mv.push(4);
+                                    return int.class;
+                                }
+                            }).compile(t, ctx);
+                } catch (NoSuchMethodException | NoSuchFieldException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+        };
+
+        CompiledSupplier supplier = compiler.compileSupplier(recipe);
+        assertEquals(4, ((PrivateTestClass) supplier.get()).value);
+        assertTrue(isHidden(supplier.getClass()));
+        assertSame(RecipeCompilerTest.class, supplier.getClass().getNestHost());
+    }
+
+    @Test
+    public void testHiddenClassWithoutNestHost() throws Throwable {
+        compiler = new RecipeCompiler(getClass().getClassLoader(), true);
+        CompiledSupplier supplier = compiler.compileSupplier(new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                mv.push(1);
+                return int.class;
+            }
+        });
+        assertTrue(isHidden(supplier.getClass()));
+        assertSame(supplier.getClass(), supplier.getClass().getNestHost());
+    }
+
+    @Test
+    public void testHiddenClassSeparatedSubRecipe() throws Throwable {
+        compiler = new RecipeCompiler(getClass().getClassLoader(), true);
+        SupplierRecipe inner = new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                mv.visitInsn(Opcodes.ICONST_3);
+                mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+                return Integer.class;
+            }
+        };
+
+        // the threshold forces the inner recipe into a separate class
+        SupplierRecipe outer = new SupplierRecipe(1) {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                inner.compile(ctx);
+                mv.unbox(Type.getType(int.class));
+                return int.class;
+            }
+        };
+        assertEquals(3, compiler.compileSupplier(outer).get());
+    }
+
+    private static class PrivateValue {
+    }
+
+    @Test
+    public void testConstantFields() throws Throwable {
+        doTestConstantFields();
+    }
+
+    @Test
+    public void testConstantFieldsHiddenClasses() throws Throwable {
+        compiler = new RecipeCompiler(getClass().getClassLoader(), true);
+        doTestConstantFields();
+    }
+
+    private void doTestConstantFields() throws Throwable {
+        PrivateValue privateValue = new PrivateValue();
+        CompiledSupplier supplier = compiler.compileSupplier(new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, "foo");
+                mv.pop();
+                ctx.addFieldAndLoad(PrivateValue.class, privateValue);
+                return PrivateValue.class;
+            }
+        });
+        assertSame(privateValue, supplier.get());
+        assertTrue(Modifier.isFinal(supplier.getClass().getField("field0").getModifiers()));
+        // the static initializer could not cast to the private class
+        assertFalse(Modifier.isFinal(supplier.getClass().getField("field1").getModifiers()));
+    }
+
+    /**
+     * The names of hidden classes contain a slash. Class.isHidden() is not
+     * available when compiling for Java 12
+     */
+    private static boolean isHidden(Class<?> cls) {
+        return cls.getName().contains("/");
+    }
+
+    private static class MapCompiledClassCache implements CompiledClassCache {
+        final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+        final AtomicInteger hits = new AtomicInteger();
+
+        @Override
+        public byte[] get(String fingerprint) {
+            byte[] result = classes.get(fingerprint);
+            if (result != null)
+                hits.incrementAndGet();
+            return result;
+        }
+
+        @Override
+        public void put(String fingerprint, byte[] bytecode) {
+            classes.put(fingerprint, bytecode);
+        }
+    }
+
+    @Test
+    public void testCompiledClassCache() throws Throwable {
+        doTestCompiledClassCache(false);
+    }
+
+    @Test
+    public void testCompiledClassCacheHiddenClasses() throws Throwable {
+        doTestCompiledClassCache(true);
+    }
+
+    private void doTestCompiledClassCache(boolean useHiddenClasses) throws Throwable {
+        MapCompiledClassCache cache = new MapCompiledClassCache();
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        assertEquals("foo", compiler.compileSupplier(createCachedRecipe("foo")).get());
+        assertEquals(0, cache.hits.get());
+        // outer and separated inner class
+        assertEquals(2, cache.classes.size());
+
+        // a different compiler with different values uses the cached classes
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        assertEquals("bar", compiler.compileSupplier(createCachedRecipe("bar")).get());
+        assertEquals(2, cache.hits.get());
+        assertEquals(2, cache.classes.size());
+    }
+
+    @Test
+    public void testCompiledClassCacheChangedRecipe() throws Throwable {
+        doTestCompiledClassCacheChangedRecipe(false);
+    }
+
+    @Test
+    public void testCompiledClassCacheChangedRecipeHiddenClasses() throws Throwable {
+        doTestCompiledClassCacheChangedRecipe(true);
+    }
+
+    private void doTestCompiledClassCacheChangedRecipe(boolean useHiddenClasses) throws Throwable {
+        MapCompiledClassCache cache = new MapCompiledClassCache();
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        assertEquals("foo", compiler.compileSupplier(createCachedRecipe("foo")).get());
+        assertEquals(2, cache.classes.size());
+
+        // the changed outer recipe is compiled, the unchanged inner recipe is
+        // taken from the cache
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        SupplierRecipe inner = new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, "bar");
+                return String.class;
+            }
+        };
+        assertEquals(3, compiler.compileSupplier(new SupplierRecipe(1) {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                inner.compile(ctx);
+                mv.pop();
+                mv.push(3);
+                return int.class;
+            }
+        }).get());
+        assertEquals(1, cache.hits.get());
+        assertEquals(3, cache.classes.size());
+    }
+
+    @Test
+    public void testCompiledClassCacheInvalidEntries() throws Throwable {
+        doTestCompiledClassCacheInvalidEntries(false);
+    }
+
+    @Test
+    public void testCompiledClassCacheInvalidEntriesHiddenClasses() throws Throwable {
+        doTestCompiledClassCacheInvalidEntries(true);
+    }
+
+    private void doTestCompiledClassCacheInvalidEntries(boolean useHiddenClasses) throws Throwable {
+        MapCompiledClassCache cache = new MapCompiledClassCache();
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        assertEquals("foo", compiler.compileSupplier(createCachedRecipe("foo")).get());
+        assertEquals(2, cache.classes.size());
+
+        // swap the two classes and replace them with garbage afterwards. The
+        // entries are not used and the classes are compiled again
+        List<String> fingerprints = new ArrayList<>(cache.classes.keySet());
+        byte[] first = cache.classes.get(fingerprints.get(0));
+        cache.classes.put(fingerprints.get(0), cache.classes.get(fingerprints.get(1)));
+        cache.classes.put(fingerprints.get(1), first);
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        assertEquals("bar", compiler.compileSupplier(createCachedRecipe("bar")).get());
+
+        for (String fingerprint : fingerprints)
+            cache.classes.put(fingerprint, new byte[] { 1, 2, 3 });
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        assertEquals("baz", compiler.compileSupplier(createCachedRecipe("baz")).get());
+
+        // the recompiled classes replaced the invalid entries
+        compiler = new RecipeCompiler(getClass().getClassLoader(), useHiddenClasses, cache);
+        cache.hits.set(0);
+        assertEquals("foo", compiler.compileSupplier(createCachedRecipe("foo")).get());
+        assertEquals(2, cache.hits.get());
+    }
+
+    private SupplierRecipe createCachedRecipe(String value) {
+        SupplierRecipe inner = new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, value);
+                return String.class;
+            }
+        };
+
+        // the threshold forces the inner recipe into a separate class
+        return new SupplierRecipe(1) {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                return inner.compile(ctx);
+            }
+        };
+    }
+
+    @Test
+    public void testCompileSupplierLazily() throws Throwable {
+        CompiledSupplier supplier = compiler.compileSupplierLazily(new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, "compiled");
+                return String.class;
+            }
+
+            @Override
+            public CompiledSupplier createInterpreter() {
+                return () -> "interpreted";
+            }
+        });
+        assertEquals("interpreted", supplier.get());
+        assertEquals("compiled", supplier.get());
+        assertEquals("compiled", supplier.get());
+    }
+
+    @Test
+    public void testCompileSupplierLazilyNotInterpretable() throws Throwable {
+        CompiledSupplier supplier = compiler.compileSupplierLazily(new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, "compiled");
+                return String.class;
+            }
+        });
+        assertEquals("compiled", supplier.get());
+    }
 }
@@ -0,0 +1,94 @@
+package com.github.ruediste.salta.core.compile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.commons.GeneratorAdapter;
+
+public class ResourceCompiledClassCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private URLClassLoader classLoader;
+    private ResourceCompiledClassCache cache;
+
+    @Before
+    public void setup() throws Exception {
+        directory = folder.getRoot().toPath().resolve(ResourceCompiledClassCache.RESOURCE_PREFIX);
+        classLoader = new URLClassLoader(new URL[] { folder.getRoot().toURI().toURL() }, getClass().getClassLoader());
+        cache = new ResourceCompiledClassCache(classLoader);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        classLoader.close();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        assertNull(cache.get("foo"));
+        Files.createDirectories(directory);
+        Files.write(directory.resolve("foo.class"), new byte[] { 1, 2, 3 });
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get("foo"));
+
+        // read only
+        cache.put("bar", new byte[] { 4 });
+        assertNull(cache.get("bar"));
+    }
+
+    @Test
+    public void testLoadPrecompiledClasses() throws Throwable {
+        DirectoryCompiledClassCache target = new DirectoryCompiledClassCache(directory);
+        assertEquals("foo", new RecipeCompiler(getClass().getClassLoader(), false, target)
+                .compileSupplier(createRecipe("foo")).get());
+        File[] files = directory.toFile().listFiles();
+        assertEquals(1, files.length);
+
+        // the precompiled class is used without generating any bytecode
+        // again
+        AtomicInteger misses = new AtomicInteger();
+        RecipeCompiler compiler = new RecipeCompiler(getClass().getClassLoader(), false, new CompiledClassCache() {
+
+            @Override
+            public byte[] get(String fingerprint) {
+                byte[] result = cache.get(fingerprint);
+                if (result == null)
+                    misses.incrementAndGet();
+                return result;
+            }
+
+            @Override
+            public void put(String fingerprint, byte[] bytecode) {
+                throw new AssertionError("class generated at runtime");
+            }
+        });
+        assertEquals("bar", compiler.compileSupplier(createRecipe("bar")).get());
+        assertEquals(0, misses.get());
+    }
+
+    private SupplierRecipe createRecipe(String value) {
+        return new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, value);
+                return String.class;
+            }
+        };
+    }
+}
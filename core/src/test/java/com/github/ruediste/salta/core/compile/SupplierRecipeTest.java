@@ -1,5 +1,6 @@
 package com.github.ruediste.salta.core.compile;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -49,4 +50,39 @@ public class SupplierRecipeTest {
         TestClass test = (TestClass) new RecipeCompiler().compileSupplier(recipe).get();
         assertTrue("expected different classes", !test.innerName.equals(test.outerName));
     }
+
+    @Test
+    public void testCompilerSizeThreshold() throws Throwable {
+        RecipeCompiler compiler = new RecipeCompiler();
+        TestClass test = (TestClass) compiler.compileSupplier(createNameRecipe()).get();
+        assertEquals(test.innerName, test.outerName);
+
+        compiler.setSizeThreshold(3);
+        test = (TestClass) compiler.compileSupplier(createNameRecipe()).get();
+        assertTrue("expected different classes", !test.innerName.equals(test.outerName));
+    }
+
+    private SupplierRecipe createNameRecipe() {
+        SupplierRecipe innerNameRecipe = new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                ctx.addFieldAndLoad(String.class, ctx.getClassCtx().getInternalClassName());
+                return String.class;
+            }
+        };
+        return new SupplierRecipe() {
+
+            @Override
+            protected Class<?> compileImpl(GeneratorAdapter mv, MethodCompilationContext ctx) {
+                mv.newInstance(Type.getType(TestClass.class));
+                mv.dup();
+                Class<?> t = innerNameRecipe.compile(ctx);
+                ctx.castToPublic(t, String.class);
+                ctx.addFieldAndLoad(String.class, ctx.getClassCtx().getInternalClassName());
+                mv.invokeConstructor(Type.getType(TestClass.class), Method.getMethod("void <init>(String, String)"));
+                return TestClass.class;
+            }
+        };
+    }
 }
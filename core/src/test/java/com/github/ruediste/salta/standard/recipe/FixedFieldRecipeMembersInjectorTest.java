@@ -180,6 +180,12 @@ public class FixedFieldRecipeMembersInjectorTest {
         }
     }
 
+    @Test
+    public void testDetailHiddenClasses() throws Throwable {
+        compiler = new RecipeCompiler(getClass().getClassLoader(), true);
+        testDetail();
+    }
+
     private void doTestDetail(String m) throws Throwable {
         SupplierRecipe recipe = new SupplierRecipe() {
 
@@ -0,0 +1,68 @@
+package com.github.ruediste.salta.standard.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.standard.util.SimpleScopeManagerBase.ScopeState;
+
+public class ScopedValueScopeManagerTest {
+
+    private ScopedValueScopeManager manager;
+    private Supplier<Object> scoped;
+
+    @Before
+    public void before() {
+        manager = new ScopedValueScopeManager("test");
+        scoped = manager.scope(Object::new, new TestBinding(), null);
+    }
+
+    @Test
+    public void testInScopeDo() {
+        ScopeState state = manager.createFreshState();
+        AtomicReference<Object> first = new AtomicReference<>();
+        manager.inScopeDo(state, () -> {
+            assertTrue(manager.isScopeActive());
+            first.set(scoped.get());
+            assertSame(first.get(), scoped.get());
+        });
+        assertFalse(manager.isScopeActive());
+        manager.inScopeDo(state, () -> assertSame(first.get(), scoped.get()));
+        manager.inScopeDo(manager.createFreshState(), () -> assertNotSame(first.get(), scoped.get()));
+    }
+
+    @Test
+    public void testNestedScopes() {
+        manager.inScopeDo(manager.createFreshState(), () -> {
+            Object outer = scoped.get();
+            manager.inScopeDo(null, () -> assertFalse(manager.isScopeActive()));
+            manager.inScopeDo(manager.createFreshState(), () -> assertNotSame(outer, scoped.get()));
+            assertSame(outer, scoped.get());
+        });
+    }
+
+    @Test
+    public void testSetStateIsVisibleOutsideOfInScopeDo() {
+        manager.setFreshState();
+        try {
+            Object instance = scoped.get();
+            assertSame(instance, scoped.get());
+            manager.inScopeDo(manager.createFreshState(), () -> assertNotSame(instance, scoped.get()));
+            assertSame(instance, scoped.get());
+        } finally {
+            manager.setState(null);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testOutsideOfScopeThrows() {
+        scoped.get();
+    }
+}
@@ -0,0 +1,367 @@
+package com.github.ruediste.salta.standard.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.KeyLockManager.LockCycleDetectedException;
+import com.github.ruediste.salta.core.SaltaException;
+
+public class SimpleScopeManagerTest {
+
+    private SimpleScopeManager manager;
+
+    @Before
+    public void before() {
+        manager = new SimpleScopeManager("test");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testOutsideOfScopeThrows() {
+        manager.scope(Object::new, new TestBinding(), null).get();
+    }
+
+    @Test
+    public void testInstancesAreStoredPerState() {
+        Binding binding = new TestBinding();
+        Supplier<Object> scoped = manager.scope(Object::new, binding, null);
+        manager.setFreshState();
+        Object first = scoped.get();
+        assertSame(first, scoped.get());
+        assertSame(first, manager.getValueMap().get(binding));
+
+        manager.setFreshState();
+        assertFalse(manager.getValueMap().containsKey(binding));
+        assertTrue(first != scoped.get());
+        manager.setState(null);
+    }
+
+    @Test
+    public void testStateGrowsWithBindingsAddedLater() {
+        manager.setFreshState();
+        Supplier<Object> first = manager.scope(Object::new, new TestBinding(), null);
+        first.get();
+        for (int i = 0; i < 10; i++) {
+            Binding binding = new TestBinding();
+            Object instance = manager.scope(Object::new, binding, null).get();
+            assertSame(instance, manager.getValueMap().get(binding));
+        }
+        assertEquals(11, manager.getValueMap().size());
+        manager.setState(null);
+    }
+
+    @Test
+    public void testBindingsAreNotPinned() throws InterruptedException {
+        Binding binding = new TestBinding();
+        int ordinal = manager.getOrdinal(binding);
+        assertEquals(ordinal, manager.getOrdinal(binding));
+        WeakReference<Binding> ref = new WeakReference<>(binding);
+        binding = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        assertEquals(ordinal + 1, manager.getOrdinal(new TestBinding()));
+    }
+
+    @Test
+    public void testNullInstancesAreCreatedOnce() {
+        AtomicInteger count = new AtomicInteger();
+        Binding binding = new TestBinding();
+        Supplier<Object> scoped = manager.scope(() -> {
+            count.incrementAndGet();
+            return null;
+        }, binding, null);
+        manager.setFreshState();
+        assertNull(scoped.get());
+        assertNull(scoped.get());
+        assertEquals(1, count.get());
+        assertTrue(manager.getValueMap().containsKey(binding));
+        manager.setState(null);
+    }
+
+    @Test
+    public void testValueMapIsWritable() {
+        Binding binding = new TestBinding();
+        Object instance = new Object();
+        manager.setFreshState();
+        Map<Binding, Object> map = manager.getValueMap();
+        map.put(binding, instance);
+        assertSame(instance, manager.scope(Object::new, binding, null).get());
+        assertSame(instance, map.remove(binding));
+        assertTrue(map.isEmpty());
+        manager.setState(null);
+    }
+
+    @Test
+    public void testConcurrentStateCreatesOneInstance() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Binding binding = new TestBinding();
+        Supplier<Object> scoped = manager.scope(() -> {
+            count.incrementAndGet();
+            creating.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new Object();
+        }, binding, null);
+
+        manager.setState(manager.createConcurrentState());
+        ExecutorService executor = manager.wrap(Executors.newFixedThreadPool(8));
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return scoped.get();
+                }));
+            start.countDown();
+            // the other threads find the creation in progress
+            creating.await();
+            release.countDown();
+            for (Future<Object> result : results)
+                assertSame(scoped.get(), result.get());
+        } finally {
+            executor.shutdown();
+            manager.setState(null);
+        }
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void testConcurrentStateFailedCreationIsRetried() {
+        AtomicInteger count = new AtomicInteger();
+        Supplier<Object> scoped = manager.scope(() -> {
+            if (count.incrementAndGet() == 1)
+                throw new RuntimeException("boom");
+            return new Object();
+        }, new TestBinding(), null);
+        manager.setState(manager.createConcurrentState());
+        try {
+            scoped.get();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("boom", e.getMessage());
+        }
+        Object instance = scoped.get();
+        assertSame(instance, scoped.get());
+        manager.setState(null);
+    }
+
+    @Test
+    public void testConcurrentStateRecursiveCreationFails() {
+        AtomicReference<Supplier<Object>> self = new AtomicReference<>();
+        self.set(manager.scope(() -> self.get().get(), new TestBinding(), null));
+        manager.setState(manager.createConcurrentState());
+        try {
+            self.get().get();
+            fail();
+        } catch (SaltaException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("being created"));
+        } finally {
+            manager.setState(null);
+        }
+    }
+
+    @Test
+    public void testConcurrentStateCircleAcrossThreadsFails() throws Exception {
+        CountDownLatch bothCreating = new CountDownLatch(2);
+        AtomicReference<Supplier<Object>> x = new AtomicReference<>();
+        AtomicReference<Supplier<Object>> y = new AtomicReference<>();
+        x.set(manager.scope(() -> {
+            bothCreating.countDown();
+            await(bothCreating);
+            return y.get().get();
+        }, new TestBinding(), null));
+        y.set(manager.scope(() -> {
+            bothCreating.countDown();
+            await(bothCreating);
+            return x.get().get();
+        }, new TestBinding(), null));
+
+        manager.setState(manager.createConcurrentState());
+        ExecutorService executor = manager.wrap(Executors.newFixedThreadPool(2));
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            results.add(executor.submit(() -> x.get().get()));
+            results.add(executor.submit(() -> y.get().get()));
+            // one thread detects the circle. The other one then creates both
+            // instances itself and detects the recursion
+            int circles = 0;
+            for (Future<Object> result : results) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof SaltaException);
+                    if (e.getCause() instanceof LockCycleDetectedException)
+                        circles++;
+                }
+            }
+            assertEquals(1, circles);
+        } finally {
+            executor.shutdownNow();
+            manager.setState(null);
+        }
+    }
+
+    @Test
+    public void testConcurrentStateRequestedByForkedTaskFails() throws Exception {
+        ExecutorService executor = manager.wrap(Executors.newSingleThreadExecutor());
+        AtomicReference<Supplier<Object>> self = new AtomicReference<>();
+        self.set(manager.scope(() -> {
+            try {
+                return executor.submit(() -> self.get().get()).get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw (RuntimeException) e.getCause();
+            } catch (InterruptedException | TimeoutException e) {
+                throw new RuntimeException(e);
+            }
+        }, new TestBinding(), null));
+
+        manager.setState(manager.createConcurrentState());
+        try {
+            self.get().get();
+            fail();
+        } catch (SaltaException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("requested by a task forked"));
+        } finally {
+            executor.shutdownNow();
+            manager.setState(null);
+        }
+    }
+
+    @Test
+    public void testConcurrentStatePutWaitsForCreation() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Binding binding = new TestBinding();
+        Object created = new Object();
+        Supplier<Object> scoped = manager.scope(() -> {
+            creating.countDown();
+            await(release);
+            return created;
+        }, binding, null);
+
+        manager.setState(manager.createConcurrentState());
+        ExecutorService executor = manager.wrap(Executors.newFixedThreadPool(2));
+        try {
+            Future<Object> creation = executor.submit(() -> scoped.get());
+            creating.await();
+            Object value = new Object();
+            Future<Object> put = executor.submit(() -> manager.getValueMap().put(binding, value));
+            try {
+                put.get(100, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+                // expected, the creation is in progress
+            }
+            release.countDown();
+            assertSame(created, creation.get());
+            assertSame(created, put.get());
+            assertSame(value, scoped.get());
+        } finally {
+            executor.shutdownNow();
+            manager.setState(null);
+        }
+    }
+
+    @Test
+    public void testConcurrentStatePutDuringCreationFails() {
+        Binding binding = new TestBinding();
+        Supplier<Object> scoped = manager.scope(() -> manager.getValueMap().put(binding, new Object()), binding,
+                null);
+        manager.setState(manager.createConcurrentState());
+        try {
+            scoped.get();
+            fail();
+        } catch (SaltaException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("being created"));
+        } finally {
+            manager.setState(null);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testConcurrentStateGrowsAndHasValueMap() {
+        manager.setState(manager.createConcurrentState());
+        List<Binding> bindings = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Binding binding = new TestBinding();
+            bindings.add(binding);
+            manager.scope(Object::new, binding, null).get();
+        }
+        Map<Binding, Object> map = manager.getValueMap();
+        assertEquals(40, map.size());
+        assertTrue(map.containsKey(bindings.get(35)));
+        map.remove(bindings.get(35));
+        assertFalse(map.containsKey(bindings.get(35)));
+        assertEquals(39, map.size());
+        manager.setState(null);
+    }
+
+    @Test
+    public void testWrappedExecutorPropagatesState() throws Exception {
+        Supplier<Object> scoped = manager.scope(Object::new, new TestBinding(), null);
+        ExecutorService executor = manager.wrap(Executors.newSingleThreadExecutor());
+        try {
+            manager.setState(manager.createConcurrentState());
+            Object instance = scoped.get();
+            assertSame(instance, executor.submit(scoped::get).get());
+            manager.setState(null);
+
+            // the state is captured at submission
+            assertFalse(executor.submit(manager::isScopeActive).get());
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicReference<Object> executed = new AtomicReference<>();
+            manager.setState(manager.createConcurrentState());
+            manager.wrap((Executor) executor).execute(() -> {
+                executed.set(scoped.get());
+                done.countDown();
+            });
+            done.await();
+            assertSame(scoped.get(), executed.get());
+            assertTrue(instance != executed.get());
+        } finally {
+            manager.setState(null);
+            executor.shutdown();
+        }
+    }
+}
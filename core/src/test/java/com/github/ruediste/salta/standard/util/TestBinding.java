@@ -0,0 +1,23 @@
+package com.github.ruediste.salta.standard.util;
+
+import com.github.ruediste.salta.core.Binding;
+import com.github.ruediste.salta.core.RecipeCreationContext;
+import com.github.ruediste.salta.core.Scope;
+import com.github.ruediste.salta.core.compile.SupplierRecipe;
+
+/**
+ * Binding used as key of scoped instances. Neither creates a recipe nor has a
+ * scope.
+ */
+class TestBinding extends Binding {
+
+    @Override
+    protected SupplierRecipe createRecipe(RecipeCreationContext ctx) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected Scope getScopeImpl() {
+        throw new UnsupportedOperationException();
+    }
+}
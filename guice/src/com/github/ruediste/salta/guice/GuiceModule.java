@@ -19,7 +19,6 @@ import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 
-import com.github.ruediste.salta.core.Binding;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.CoreInjector;
 import com.github.ruediste.salta.core.CreationRule;
@@ -313,14 +312,8 @@ public class GuiceModule implements Module {
 	}
 
 	private void addEagerInstantiationDynamicInitializer() {
-		config.dynamicInitializers.add(() -> {
-			injector.getSaltaInjector().getCoreInjector().withRecipeCreationContext(ctx -> {
-				for (Binding b : config.creationPipeline.staticBindings) {
-					b.getScope().performEagerInstantiation(ctx, b);
-				}
-				return null;
-			});
-		});
+		config.dynamicInitializers
+				.add(() -> injector.getSaltaInjector().performEagerInstantiations(config.creationPipeline.staticBindings));
 	}
 
 	private void addConstructorInstantiationRule() {
@@ -22,6 +22,7 @@ import java.util.Optional;
 import javax.inject.Provider;
 
 import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.core.InstanceHandle;
 import com.github.ruediste.salta.core.SaltaException;
 import com.github.ruediste.salta.jsr330.binder.Binder;
 import com.github.ruediste.salta.standard.StandardInjector;
@@ -112,6 +113,22 @@ public interface Injector {
      */
     <T> Provider<T> getProvider(Class<T> type);
 
+    /**
+     * Returns a handle creating instances for the given injection key. The key
+     * is resolved immediately, {@link InstanceHandle#get()} does not perform
+     * any lookup. Use this for keys which are instantiated very frequently.
+     *
+     * @throws SaltaException
+     *             if the key cannot be resolved
+     */
+    <T> InstanceHandle<T> getInstanceHandle(CoreDependencyKey<T> key);
+
+    /**
+     * Returns a handle creating instances for the given type, see
+     * {@link #getInstanceHandle(CoreDependencyKey)}
+     */
+    <T> InstanceHandle<T> getInstanceHandle(Class<T> type);
+
     /**
      * Returns the appropriate instance for the given injection key; equivalent
      * to {@code getProvider(key).get()}. When feasible, avoid using this
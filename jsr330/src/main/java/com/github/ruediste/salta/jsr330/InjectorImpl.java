@@ -6,6 +6,7 @@ import java.util.function.Supplier;
 import javax.inject.Provider;
 
 import com.github.ruediste.salta.core.CoreDependencyKey;
+import com.github.ruediste.salta.core.InstanceHandle;
 import com.github.ruediste.salta.standard.DependencyKey;
 import com.github.ruediste.salta.standard.StandardInjector;
 import com.github.ruediste.salta.standard.config.MembersInjectionToken;
@@ -84,6 +85,16 @@ public class InjectorImpl implements Injector {
         };
     }
 
+    @Override
+    public <T> InstanceHandle<T> getInstanceHandle(CoreDependencyKey<T> key) {
+        return delegate.getInstanceHandle(key);
+    }
+
+    @Override
+    public <T> InstanceHandle<T> getInstanceHandle(Class<T> type) {
+        return delegate.getInstanceHandle(type);
+    }
+
     @Override
     public <T> T getInstance(CoreDependencyKey<T> key) {
         return delegate.getInstance(key);
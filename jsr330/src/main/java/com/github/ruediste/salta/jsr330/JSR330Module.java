@@ -15,7 +15,6 @@ import javax.inject.Provider;
 import javax.inject.Qualifier;
 import javax.inject.Singleton;
 
-import com.github.ruediste.salta.core.Binding;
 import com.github.ruediste.salta.core.CoreDependencyKey;
 import com.github.ruediste.salta.core.CoreInjector;
 import com.github.ruediste.salta.core.CreationRule;
@@ -122,14 +121,8 @@ public class JSR330Module extends AbstractModule {
 
 	protected void addSingletonInstantiationDynamicInitializer(StandardInjectorConfiguration config) {
 		Injector injector = binder().getInjector();
-		config.dynamicInitializers.add(() -> {
-			injector.getDelegate().getCoreInjector().withRecipeCreationContext(ctx -> {
-				for (Binding b : config.creationPipeline.staticBindings) {
-					b.getScope().performEagerInstantiation(ctx, b);
-				}
-				return null;
-			});
-		});
+		config.dynamicInitializers
+				.add(() -> injector.getDelegate().performEagerInstantiations(config.creationPipeline.staticBindings));
 	}
 
 	protected void setMembersInjectorFactory(StandardInjectorConfiguration config) {
@@ -2,7 +2,6 @@ module com.github.ruediste.salta.jsr330 {
 	requires transitive javax.inject;
 	requires transitive com.github.ruediste.salta.core;
 	requires java.logging;
-	requires net.bytebuddy;
 	requires com.google.common;
 
 	exports com.github.ruediste.salta.jsr330;
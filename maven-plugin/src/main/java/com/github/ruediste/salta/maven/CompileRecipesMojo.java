@@ -0,0 +1,105 @@
+package com.github.ruediste.salta.maven;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import com.github.ruediste.salta.core.compile.DirectoryCompiledClassCache;
+import com.github.ruediste.salta.core.compile.ResourceCompiledClassCache;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.jsr330.Injector;
+import com.github.ruediste.salta.jsr330.Salta;
+import com.github.ruediste.salta.jsr330.SaltaModule;
+import com.github.ruediste.salta.standard.Stage;
+
+/**
+ * Compiles the recipes of the static bindings of a set of modules ahead of
+ * time. The compiled classes are written to the output directory below
+ * {@link ResourceCompiledClassCache#RESOURCE_PREFIX}. To use them, set
+ * {@code CoreInjectorConfiguration.compiledClassCache} to a
+ * {@link ResourceCompiledClassCache} when creating the injector, using the
+ * same modules and stage.
+ *
+ * <p>
+ * The classes are stored under a fingerprint of their structure. The injector
+ * still translates the recipes to a class structure, but skips the frame
+ * computation and bytecode generation for classes found. Recipes which changed
+ * since, for example due to a changed binding, are compiled at runtime. The
+ * injector used for the compilation does not instantiate any singletons.
+ * </p>
+ */
+@Mojo(name = "compile-recipes", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class CompileRecipesMojo extends AbstractMojo {
+
+	/**
+	 * Fully qualified names of the {@link SaltaModule}s to create the injector
+	 * from. The modules need a public no-args constructor.
+	 */
+	@Parameter(required = true)
+	private List<String> modules;
+
+	/**
+	 * Stage to create the injector in.
+	 */
+	@Parameter(defaultValue = "DEVELOPMENT")
+	private Stage stage;
+
+	@Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+	private File outputDirectory;
+
+	@Parameter(defaultValue = "${project.compileClasspathElements}", readonly = true, required = true)
+	private List<String> classpathElements;
+
+	@Override
+	public void execute() throws MojoExecutionException {
+		Path cacheDirectory = outputDirectory.toPath().resolve(ResourceCompiledClassCache.RESOURCE_PREFIX);
+		Thread currentThread = Thread.currentThread();
+		ClassLoader oldContextClassLoader = currentThread.getContextClassLoader();
+		try (URLClassLoader projectClassLoader = new URLClassLoader(getClasspathUrls(),
+				getClass().getClassLoader())) {
+			currentThread.setContextClassLoader(projectClassLoader);
+
+			List<SaltaModule> saltaModules = new ArrayList<>();
+			saltaModules.add(new AbstractModule() {
+
+				@Override
+				protected void configure() throws Exception {
+					config().standardConfig.config.generatedCodeParentClassLoader = projectClassLoader;
+					config().standardConfig.config.compiledClassCache = new DirectoryCompiledClassCache(
+							cacheDirectory);
+					config().standardConfig.config.aheadOfTimeCompilation = true;
+				}
+			});
+			for (String module : modules) {
+				saltaModules.add((SaltaModule) projectClassLoader.loadClass(module).getConstructor().newInstance());
+			}
+
+			Injector injector = Salta.createInjector(stage, saltaModules);
+			injector.getDelegate().compileStaticBindings();
+			getLog().info("Compiled recipes of " + modules.size() + " modules to " + cacheDirectory);
+		} catch (Exception e) {
+			throw new MojoExecutionException("Error while compiling recipes", e);
+		} finally {
+			currentThread.setContextClassLoader(oldContextClassLoader);
+		}
+	}
+
+	private URL[] getClasspathUrls() throws MalformedURLException {
+		List<URL> urls = new ArrayList<>();
+		for (String element : classpathElements) {
+			urls.add(new File(element).toURI().toURL());
+		}
+		return urls.toArray(new URL[] {});
+	}
+}
@@ -0,0 +1,74 @@
+package com.github.ruediste.salta.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.ruediste.salta.core.compile.ResourceCompiledClassCache;
+import com.github.ruediste.salta.jsr330.AbstractModule;
+import com.github.ruediste.salta.standard.Stage;
+
+public class CompileRecipesMojoTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static final AtomicInteger dependencyCount = new AtomicInteger();
+
+	@Singleton
+	public static class Dependency {
+		public Dependency() {
+			dependencyCount.incrementAndGet();
+		}
+	}
+
+	public static class Service {
+		@Inject
+		public Dependency dependency;
+	}
+
+	public static class TestModule extends AbstractModule {
+
+		@Override
+		protected void configure() throws Exception {
+			bind(Dependency.class).asEagerSingleton();
+			bind(Service.class);
+		}
+	}
+
+	@Test
+	public void testCompileRecipes() throws Exception {
+		dependencyCount.set(0);
+		File outputDirectory = folder.newFolder("classes");
+		CompileRecipesMojo mojo = new CompileRecipesMojo();
+		set(mojo, "modules", Arrays.asList(TestModule.class.getName()));
+		set(mojo, "stage", Stage.PRODUCTION);
+		set(mojo, "outputDirectory", outputDirectory);
+		set(mojo, "classpathElements", Collections.emptyList());
+		mojo.execute();
+
+		File recipes = new File(outputDirectory, ResourceCompiledClassCache.RESOURCE_PREFIX);
+		assertTrue(recipes.list().length >= 2);
+		assertTrue(Arrays.stream(recipes.list()).allMatch(name -> name.endsWith(".class")));
+		// neither eager nor during compilation
+		assertEquals(0, dependencyCount.get());
+	}
+
+	private void set(Object target, String fieldName, Object value) throws Exception {
+		Field field = target.getClass().getDeclaredField(fieldName);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+}